@@ -1,8 +1,10 @@
 package app.familyphotoframe;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
 
 import android.content.res.Resources;
 
@@ -12,6 +14,7 @@ import android.app.ActionBar.OnMenuVisibilityListener;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
@@ -29,6 +32,7 @@ import android.support.v4.view.GestureDetectorCompat;
 
 import com.codepath.oauth.OAuthBaseClient;
 import com.bumptech.glide.Glide;
+import app.familyphotoframe.repository.DiscoveryCheckpoint;
 import app.familyphotoframe.repository.FlickrClient;
 import app.familyphotoframe.repository.PhotoCollection;
 import app.familyphotoframe.model.CrossFadeGroup;
@@ -57,6 +61,8 @@ public class PhotoFrameActivity extends Activity {
     final private long FULLSCREEN_DELAY = 1000L;
     final private int SWIPE_MIN_DISTANCE = 120;
     final private int SWIPE_THRESHOLD_VELOCITY = 200;
+    final private String CHECKPOINT_FILE = "discovery.checkpoint";
+    final private long CHECKPOINT_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
 
     class GestureListener extends GestureDetector.SimpleOnGestureListener {
         @Override
@@ -141,7 +147,9 @@ public class PhotoFrameActivity extends Activity {
         configureFullscreenMode(true);
 
         flickr = (FlickrClient) OAuthBaseClient.getInstance(FlickrClient.class, getApplicationContext());
-        photoCollection = new PhotoCollection(this, flickr);
+        photoCollection = new PhotoCollection(this, flickr,
+                                              new DiscoveryCheckpoint(new File(getFilesDir(), CHECKPOINT_FILE),
+                                                                      CHECKPOINT_INTERVAL_MS));
 
         showPlanner = new ShowPlanner(photoCollection);
 
@@ -192,8 +200,24 @@ public class PhotoFrameActivity extends Activity {
      * start the slideshow. called by photoCollection at the end of discovery.
      */
     public void startShow() {
-        Log.i("PhotoFrameActivity", "starting slideshow");
-        display.run();
+        // photoCollection calls this from the flickr ingest thread
+        runOnUiThread(new Runnable() {
+                public void run() {
+                    Log.i("PhotoFrameActivity", "starting slideshow");
+                    display.run();
+                }
+            });
+    }
+
+    /**
+     * let the user know discovery finished. called by photoCollection, off the ui thread.
+     */
+    public void reportPhotosUpToDate() {
+        runOnUiThread(new Runnable() {
+                public void run() {
+                    Toast.makeText(getApplicationContext(), R.string.sync_to_db, Toast.LENGTH_SHORT).show();
+                }
+            });
     }
 
     /**
@@ -256,7 +280,10 @@ public class PhotoFrameActivity extends Activity {
      */
     private void logout() {
         Log.i("PhotoFrameActivity", "logout menuitem selected");
+        photoCollection.cancelDiscovery();
+        photoCollection.clearCheckpoint();
         flickr.logout();
+        flickr.shutdown();
     }
 
     @Override
@@ -4,6 +4,8 @@ public class Contact {
     private String userId;
     private String name;
     private Relationship relationship;
+    /** index given by the collection's contact registry, -1 until the contact is added to one */
+    private int ordinal = -1;
 
     public Contact(final String userId, final String name, final Relationship relationship) {
         this.userId = userId;
@@ -32,6 +34,13 @@ public class Contact {
         this.relationship = relationship;
     }
 
+    public int getOrdinal() {
+        return ordinal;
+    }
+    public void setOrdinal(final int ordinal) {
+        this.ordinal = ordinal;
+    }
+
     public String toString() {
         return userId + " " + name;
     }
@@ -0,0 +1,154 @@
+package app.familyphotoframe.repository;
+
+import java.io.IOException;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * stops sending requests to an endpoint that keeps failing.
+ *
+ * closed: requests go through. after failuresToOpen transient failures in a row the breaker
+ * opens and requests are turned away until the cooldown passes. then one trial request is let
+ * through (half open). if it works the breaker closes, if not it opens again with twice the
+ * cooldown, up to maxCooldownMs. if the trial is cancelled it never reports back, so the
+ * breaker goes back to open with the cooldown already over, and the next request is the trial.
+ */
+public class CircuitBreaker {
+
+    /**
+     * the request wasn't sent because the breaker is open
+     */
+    public static class OpenException extends IOException {
+        public OpenException(final String name) {
+            super("circuit open for " + name);
+        }
+    }
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failuresToOpen;
+    private final long initialCooldownMs;
+    private final long maxCooldownMs;
+    private State state;
+    private int consecutiveFailures;
+    private long cooldownMs;
+    private long openUntil;
+    private int timesOpened;
+
+    /**
+     * ctor
+     *
+     * @param name endpoint name, for logs
+     * @param failuresToOpen transient failures in a row that open the breaker
+     * @param initialCooldownMs how long the breaker stays open the first time
+     * @param maxCooldownMs cap on the cooldown as it doubles
+     */
+    public CircuitBreaker(final String name, final int failuresToOpen, final long initialCooldownMs, final long maxCooldownMs) {
+        this.name = name;
+        this.failuresToOpen = failuresToOpen;
+        this.initialCooldownMs = initialCooldownMs;
+        this.maxCooldownMs = maxCooldownMs;
+        state = State.CLOSED;
+        cooldownMs = initialCooldownMs;
+    }
+
+    /**
+     * @return true if a request may be sent now. in the half open state only the first caller
+     *         gets true, until that request reports back.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (now() < openUntil) {
+                return false;
+            }
+            Log.i("CircuitBreaker", name + " half open, sending a trial request");
+            state = State.HALF_OPEN;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return about how long to wait before a request will be let through. 0 if it's closed.
+     */
+    public synchronized long getDelayMs() {
+        switch (state) {
+        case CLOSED:
+            return 0;
+        case OPEN:
+            return Math.max(0, openUntil - now());
+        default:
+            // waiting on the trial request
+            return initialCooldownMs;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            Log.i("CircuitBreaker", name + " closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        cooldownMs = initialCooldownMs;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            cooldownMs = Math.min(maxCooldownMs, cooldownMs * 2);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failuresToOpen) {
+            open();
+        }
+    }
+
+    /**
+     * a request that was sent was cancelled before it finished. if it was the trial, let
+     * another request through in its place.
+     */
+    public synchronized void recordCancelled() {
+        if (state == State.HALF_OPEN) {
+            Log.i("CircuitBreaker", name + " trial request cancelled");
+            state = State.OPEN;
+            openUntil = now();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized int getTimesOpened() {
+        return timesOpened;
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    /**
+     * only called while holding the lock
+     */
+    private void open() {
+        Log.w("CircuitBreaker", name + " open for " + cooldownMs + " ms after " + consecutiveFailures + " failures");
+        state = State.OPEN;
+        openUntil = now() + cooldownMs;
+        timesOpened++;
+    }
+
+    /**
+     * @return monotonic time in ms. tests replace the clock.
+     */
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
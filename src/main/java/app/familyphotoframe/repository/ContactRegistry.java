@@ -0,0 +1,105 @@
+package app.familyphotoframe.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import app.familyphotoframe.model.Contact;
+
+/**
+ * the collection's contacts, indexed by userId.
+ *
+ * each contact is given an ordinal, a small int that's fixed for as long as the registry holds
+ * it, so per-contact state can be kept in arrays and bitsets instead of maps. ordinals of removed
+ * contacts are handed out again, so they stay below the number of contacts ever held at once.
+ *
+ * lookups by userId don't lock, so the network threads decoding photo pages never wait on the
+ * collection. adding and removing are synchronized.
+ */
+public class ContactRegistry {
+    private final ConcurrentHashMap<String,Contact> byUserId = new ConcurrentHashMap<>();
+    /** indexed by ordinal, null where a contact was removed */
+    private final List<Contact> byOrdinal = new ArrayList<>();
+    /** ordinals of removed contacts, to reuse */
+    private final List<Integer> freeOrdinals = new ArrayList<>();
+
+    /**
+     * @return the contact, or null if there isn't one with the userId
+     */
+    public Contact get(final String userId) {
+        return byUserId.get(userId);
+    }
+
+    /**
+     * @return the contact with the ordinal, or null if there isn't one
+     */
+    public synchronized Contact get(final int ordinal) {
+        return ordinal < byOrdinal.size() ? byOrdinal.get(ordinal) : null;
+    }
+
+    /**
+     * add the contact and give it an ordinal, unless there's already one with its userId
+     *
+     * @return the contact held by the registry, the one given or the existing one
+     */
+    public synchronized Contact add(final Contact contact) {
+        Contact existing = byUserId.get(contact.getUserId());
+        if (existing != null) {
+            return existing;
+        }
+        int ordinal;
+        if (freeOrdinals.isEmpty()) {
+            ordinal = byOrdinal.size();
+            byOrdinal.add(contact);
+        } else {
+            ordinal = freeOrdinals.remove(freeOrdinals.size() - 1);
+            byOrdinal.set(ordinal, contact);
+        }
+        contact.setOrdinal(ordinal);
+        byUserId.put(contact.getUserId(), contact);
+        return contact;
+    }
+
+    /**
+     * @return true if the contact was held
+     */
+    public synchronized boolean remove(final Contact contact) {
+        Contact existing = byUserId.get(contact.getUserId());
+        if (existing == null) {
+            return false;
+        }
+        byUserId.remove(existing.getUserId());
+        byOrdinal.set(existing.getOrdinal(), null);
+        freeOrdinals.add(existing.getOrdinal());
+        return true;
+    }
+
+    public int size() {
+        return byUserId.size();
+    }
+
+    /**
+     * @return one more than the highest ordinal in use, the size an array indexed by ordinal needs
+     */
+    public synchronized int getOrdinalLimit() {
+        return byOrdinal.size();
+    }
+
+    /**
+     * @return a copy of the contacts, in ordinal order
+     */
+    public synchronized List<Contact> getAll() {
+        List<Contact> contacts = new ArrayList<>(byUserId.size());
+        for (Contact contact : byOrdinal) {
+            if (contact != null) {
+                contacts.add(contact);
+            }
+        }
+        return contacts;
+    }
+
+    @Override
+    public String toString() {
+        return byUserId.values().toString();
+    }
+}
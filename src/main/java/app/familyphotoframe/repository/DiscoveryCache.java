@@ -0,0 +1,259 @@
+package app.familyphotoframe.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import android.util.Log;
+
+/**
+ * raw responses of the discovery requests (profile and contact list pages), kept on disk so
+ * a sync can skip them while they're fresh.
+ *
+ * an entry is fresh for ttlMs after it was fetched or last revalidated. stale entries are kept
+ * so their etag can be used to revalidate them.
+ */
+public class DiscoveryCache {
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * one cached response
+     */
+    public static class Entry {
+        /** response body, json */
+        public final String body;
+        /** etag header from the response, or null if flickr didn't send one */
+        public final String etag;
+        /** wall clock time (ms) the response was fetched or last revalidated */
+        public final long fetchTime;
+
+        public Entry(final String body, final String etag, final long fetchTime) {
+            this.body = body;
+            this.etag = etag;
+            this.fetchTime = fetchTime;
+        }
+    }
+
+    private final File file;
+    private final long ttlMs;
+    private final ExecutorService ioExecutor;
+    private final Map<String,Entry> entries;
+    private boolean loaded;
+    private boolean saveScheduled;
+
+    /**
+     * ctor
+     *
+     * @param file where the cache is stored
+     * @param ttlMs how long a response can be used without asking flickr again
+     */
+    public DiscoveryCache(final File file, final long ttlMs) {
+        this.file = file;
+        this.ttlMs = ttlMs;
+        entries = new HashMap<>();
+        loaded = false;
+        saveScheduled = false;
+        ioExecutor = Executors.newSingleThreadExecutor();
+        ioExecutor.execute(new Runnable() {
+                public void run() {
+                    synchronized (DiscoveryCache.this) {
+                        ensureLoaded();
+                    }
+                }
+            });
+    }
+
+    /**
+     * @return the cached response, fresh or not, or null if there isn't one
+     */
+    public synchronized Entry get(final String key) {
+        ensureLoaded();
+        return entries.get(key);
+    }
+
+    /**
+     * @return the cached response if it's still within the ttl, otherwise null
+     */
+    public synchronized Entry getFresh(final String key) {
+        Entry entry = get(key);
+        if (entry == null || !isFresh(entry, now())) {
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized void put(final String key, final String body, final String etag) {
+        ensureLoaded();
+        entries.put(key, new Entry(body, etag, now()));
+        scheduleSave();
+    }
+
+    /**
+     * flickr confirmed the cached response is still current, so restart its ttl.
+     *
+     * @return the entry, or null if there isn't one
+     */
+    public synchronized Entry revalidated(final String key) {
+        Entry entry = get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry = new Entry(entry.body, entry.etag, now());
+        entries.put(key, entry);
+        scheduleSave();
+        return entry;
+    }
+
+    /**
+     * forget everything, e.g. when the user logs out.
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        entries.clear();
+        scheduleSave();
+    }
+
+    /**
+     * wait for the saves scheduled so far to be written
+     */
+    void flush() throws InterruptedException, ExecutionException {
+        ioExecutor.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+    }
+
+    /**
+     * @return wall clock time in ms. tests replace the clock.
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isFresh(final Entry entry, final long now) {
+        // a clock set backwards makes the entry look like it's from the future. don't trust it.
+        return now >= entry.fetchTime && now - entry.fetchTime < ttlMs;
+    }
+
+    /**
+     * only called while holding the lock.
+     */
+    private void scheduleSave() {
+        if (!saveScheduled) {
+            saveScheduled = true;
+            ioExecutor.execute(new Runnable() {
+                    public void run() {
+                        save();
+                    }
+                });
+        }
+    }
+
+    /**
+     * read the file if we haven't yet. only called while holding the lock.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                Log.w("DiscoveryCache", "ignoring discovery cache with old version");
+                return;
+            }
+            int count = in.readInt();
+            for (int ii=0; ii<count; ii++) {
+                String key = in.readUTF();
+                String body = readLongString(in);
+                String etag = in.readBoolean() ? in.readUTF() : null;
+                long fetchTime = in.readLong();
+                entries.put(key, new Entry(body, etag, fetchTime));
+            }
+            Log.i("DiscoveryCache", "loaded " + entries.size() + " responses");
+        } catch (IOException e) {
+            Log.e("DiscoveryCache", "failed to load discovery cache: ", e);
+            entries.clear();
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * write a snapshot to a temp file and move it into place, so a crash mid-write can't leave a
+     * truncated cache behind.
+     */
+    private void save() {
+        Map<String,Entry> snapshot;
+        synchronized (this) {
+            saveScheduled = false;
+            snapshot = new HashMap<>(entries);
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String,Entry> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeLongString(out, entry.getValue().body);
+                out.writeBoolean(entry.getValue().etag != null);
+                if (entry.getValue().etag != null) {
+                    out.writeUTF(entry.getValue().etag);
+                }
+                out.writeLong(entry.getValue().fetchTime);
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.e("DiscoveryCache", "failed to rename " + tmpFile);
+            }
+        } catch (IOException e) {
+            Log.e("DiscoveryCache", "failed to save discovery cache: ", e);
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * a full contacts page is larger than the 64k writeUTF allows
+     */
+    private void writeLongString(final DataOutputStream out, final String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readLongString(final DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private void close(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w("DiscoveryCache", "close failed: ", e);
+        }
+    }
+}
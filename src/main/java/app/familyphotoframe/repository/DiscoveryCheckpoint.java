@@ -0,0 +1,488 @@
+package app.familyphotoframe.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import android.util.Log;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+/**
+ * the photo collection and how far its discovery got, kept on disk so a restarted app can show
+ * photos right away and pick up an unfinished discovery where it stopped.
+ *
+ * photos are the bulk of it, so they're written compactly: numeric ids, hex secrets and woeids as
+ * numbers, owners as their position in the contacts, and server and farm values once each, with
+ * later photos referring back to them. values that don't pack are written as strings.
+ *
+ * saves are coalesced: progress asks for one with saveSoon(), and the snapshot is taken from the
+ * source when the save runs, at most once per minIntervalMs. everything is read and written on a
+ * background thread, and the file is read as soon as this is created.
+ */
+public class DiscoveryCheckpoint {
+    private static final int FILE_VERSION = 2;
+
+    /** secret length byte, or woeid value, for a value that's written as a string */
+    private static final int UNPACKED = -2;
+
+    /** woeid value for a photo without one */
+    private static final int NO_WOEID = -1;
+
+    /**
+     * what's saved. photos hold their owner, which is one of the contacts.
+     */
+    public static class State {
+        /** every contact, including the logged in users */
+        public final List<Contact> contacts = new ArrayList<>();
+        /**
+         * every photo, in the order they were added. when saving this can be a view of a
+         * generation, so the photos are only built as they're written, outside the source's lock.
+         */
+        public List<Photo> photos = new ArrayList<>();
+        /** unix time (secs) when each contact's last complete photo fetch started, keyed by userId */
+        public final Map<String,Long> lastSyncByContact = new HashMap<>();
+        /** wall clock time (ms) of the last complete full sync, or 0 if there wasn't one */
+        public long timeOfLastFullSync;
+
+        /** wall clock time (ms) the unfinished discovery started, or 0 if there isn't one */
+        public long timeOfSyncStart;
+        /** true if the unfinished discovery is a full sync */
+        public boolean fullSyncInProgress;
+        /** userIds of contacts whose photos have all been fetched by the unfinished discovery */
+        public final Set<String> contactsDoneInSync = new HashSet<>();
+        /** unix time (secs) each contact that's partly fetched started, keyed by userId */
+        public final Map<String,Long> syncStartByContact = new HashMap<>();
+        /** photo pages already fetched of each contact that's partly fetched, keyed by userId */
+        public final Map<String,Integer> pagesDoneByContact = new HashMap<>();
+        /** ids of the photos the unfinished full sync has listed */
+        public final Set<String> photoIdsSeenInSync = new HashSet<>();
+    }
+
+    /**
+     * provides the state to save
+     */
+    public interface Source {
+        /**
+         * @return a copy of the current state. called on the background thread.
+         */
+        State snapshot();
+    }
+
+    /**
+     * gets what was saved, once it's been read
+     */
+    public interface LoadListener {
+        /**
+         * called on the background thread
+         *
+         * @param state what was saved, or null if there's nothing usable
+         */
+        void onLoaded(State state);
+    }
+
+    private final File file;
+    private final long minIntervalMs;
+    private final ScheduledExecutorService ioExecutor;
+    private final Future<State> loaded;
+    private Source source;
+    private ScheduledFuture<?> pendingSave;
+
+    /**
+     * ctor
+     *
+     * @param file where the checkpoint is stored
+     * @param minIntervalMs saveSoon() writes at most this often
+     */
+    public DiscoveryCheckpoint(final File file, final long minIntervalMs) {
+        this.file = file;
+        this.minIntervalMs = minIntervalMs;
+        ioExecutor = Executors.newSingleThreadScheduledExecutor();
+        loaded = ioExecutor.submit(new Callable<State>() {
+                public State call() {
+                    return read();
+                }
+            });
+    }
+
+    public synchronized void setSource(final Source source) {
+        this.source = source;
+    }
+
+    /**
+     * wait for the file to be read if it hasn't been yet.
+     *
+     * @return what was saved, or null if there's nothing usable
+     */
+    public State load() {
+        try {
+            return loaded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e("DiscoveryCheckpoint", "failed to load checkpoint: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * like load(), without waiting. the listener is called on the background thread once the
+     * file has been read.
+     */
+    public void load(final LoadListener listener) {
+        ioExecutor.execute(new Runnable() {
+                public void run() {
+                    listener.onLoaded(load());
+                }
+            });
+    }
+
+    /**
+     * save within minIntervalMs. calls while a save is pending are folded into it.
+     */
+    public synchronized void saveSoon() {
+        if (pendingSave == null) {
+            pendingSave = ioExecutor.schedule(new Runnable() {
+                    public void run() {
+                        save();
+                    }
+                }, minIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * save as soon as the background thread gets to it, e.g. when discovery completes or stops.
+     */
+    public synchronized void saveNow() {
+        if (pendingSave != null) {
+            pendingSave.cancel(false);
+        }
+        pendingSave = ioExecutor.schedule(new Runnable() {
+                public void run() {
+                    save();
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * forget everything, e.g. when the user logs out. a pending save is dropped.
+     */
+    public synchronized void clear() {
+        if (pendingSave != null) {
+            pendingSave.cancel(false);
+            pendingSave = null;
+        }
+        ioExecutor.execute(new Runnable() {
+                public void run() {
+                    if (file.exists() && !file.delete()) {
+                        Log.e("DiscoveryCheckpoint", "failed to delete " + file);
+                    }
+                }
+            });
+    }
+
+    /**
+     * wait for the saves that are due by now to be written
+     */
+    void flush() throws InterruptedException, ExecutionException {
+        ioExecutor.schedule(new Runnable() {
+                public void run() {
+                }
+            }, 0, TimeUnit.MILLISECONDS).get();
+    }
+
+    /**
+     * write a snapshot to a temp file and move it into place, so a crash mid-write can't leave a
+     * truncated checkpoint behind.
+     */
+    private void save() {
+        Source snapshotSource;
+        synchronized (this) {
+            pendingSave = null;
+            snapshotSource = source;
+        }
+        if (snapshotSource == null) {
+            return;
+        }
+        // taken without our lock, the source locks itself
+        State state = snapshotSource.snapshot();
+        long start = System.nanoTime();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            write(out, state);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.e("DiscoveryCheckpoint", "failed to rename " + tmpFile);
+                return;
+            }
+            Log.i("DiscoveryCheckpoint", "saved " + state.photos.size() + " photos, " + state.contactsDoneInSync.size()
+                  + " contacts done in sync, in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (IOException e) {
+            Log.e("DiscoveryCheckpoint", "failed to save checkpoint: ", e);
+        } finally {
+            close(out);
+        }
+    }
+
+    private void write(final DataOutputStream out, final State state) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeInt(state.contacts.size());
+        for (Contact contact : state.contacts) {
+            out.writeUTF(contact.getUserId());
+            writeNullableString(out, contact.getName());
+            out.writeUTF(contact.getRelationship().name());
+        }
+        Map<String,Integer> contactIndexes = new HashMap<>();
+        for (Contact contact : state.contacts) {
+            contactIndexes.put(contact.getUserId(), contactIndexes.size());
+        }
+        Map<String,Integer> interned = new HashMap<>();
+        out.writeInt(state.photos.size());
+        for (Photo photo : state.photos) {
+            Integer owner = contactIndexes.get(photo.getOwner().getUserId());
+            if (owner == null) {
+                throw new IOException("photo " + photo.getId() + " has an unknown owner");
+            }
+            writeId(out, photo.getId());
+            writeSecret(out, photo.getSecret());
+            writeInterned(out, photo.getServerId(), interned);
+            writeInterned(out, photo.getFarmId(), interned);
+            out.writeInt(owner);
+            writeNullableString(out, photo.getTitle());
+            out.writeLong(photo.getDateTaken().getTime());
+            writeWoeId(out, photo.getWoeId());
+        }
+        writeLongs(out, state.lastSyncByContact);
+        out.writeLong(state.timeOfLastFullSync);
+
+        out.writeLong(state.timeOfSyncStart);
+        out.writeBoolean(state.fullSyncInProgress);
+        writeStrings(out, state.contactsDoneInSync);
+        writeLongs(out, state.syncStartByContact);
+        out.writeInt(state.pagesDoneByContact.size());
+        for (Map.Entry<String,Integer> entry : state.pagesDoneByContact.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.writeInt(state.photoIdsSeenInSync.size());
+        for (String id : state.photoIdsSeenInSync) {
+            writeId(out, id);
+        }
+    }
+
+    /**
+     * @return the saved state, or null if there's no file or it can't be used
+     */
+    private State read() {
+        if (!file.exists()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                Log.w("DiscoveryCheckpoint", "ignoring checkpoint with old version");
+                return null;
+            }
+            State state = new State();
+            int numContacts = in.readInt();
+            for (int ii=0; ii<numContacts; ii++) {
+                state.contacts.add(new Contact(in.readUTF(), readNullableString(in), Relationship.valueOf(in.readUTF())));
+            }
+            List<String> interned = new ArrayList<>();
+            int numPhotos = in.readInt();
+            for (int ii=0; ii<numPhotos; ii++) {
+                String id = readId(in);
+                String secret = readSecret(in);
+                String serverId = readInterned(in, interned);
+                String farmId = readInterned(in, interned);
+                int owner = in.readInt();
+                String title = readNullableString(in);
+                Date dateTaken = new Date(in.readLong());
+                String woeId = readWoeId(in);
+                if (owner < 0 || owner >= numContacts) {
+                    throw new IOException("photo " + id + " has an unknown owner");
+                }
+                state.photos.add(new Photo(id, secret, serverId, farmId, state.contacts.get(owner), title, dateTaken, woeId));
+            }
+            readLongs(in, state.lastSyncByContact);
+            state.timeOfLastFullSync = in.readLong();
+
+            state.timeOfSyncStart = in.readLong();
+            state.fullSyncInProgress = in.readBoolean();
+            readStrings(in, state.contactsDoneInSync);
+            readLongs(in, state.syncStartByContact);
+            int numPartlyDone = in.readInt();
+            for (int ii=0; ii<numPartlyDone; ii++) {
+                state.pagesDoneByContact.put(in.readUTF(), in.readInt());
+            }
+            int numSeen = in.readInt();
+            for (int ii=0; ii<numSeen; ii++) {
+                state.photoIdsSeenInSync.add(readId(in));
+            }
+            Log.i("DiscoveryCheckpoint", "loaded " + state.photos.size() + " photos of " + state.contacts.size()
+                  + " contacts in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            return state;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e("DiscoveryCheckpoint", "failed to load checkpoint: ", e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void writeNullableString(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private String readNullableString(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * a photo id, as a number if it packs
+     */
+    private void writeId(final DataOutputStream out, final String id) throws IOException {
+        long packed = PhotoStore.packDecimal(id);
+        out.writeLong(packed);
+        if (packed < 0) {
+            out.writeUTF(id);
+        }
+    }
+
+    private String readId(final DataInputStream in) throws IOException {
+        long packed = in.readLong();
+        return packed < 0 ? in.readUTF() : Long.toString(packed);
+    }
+
+    /**
+     * a photo secret, as a number and its length if it packs, so leading zeroes survive
+     */
+    private void writeSecret(final DataOutputStream out, final String secret) throws IOException {
+        long packed = PhotoStore.packHex(secret);
+        if (packed < 0) {
+            out.writeByte(UNPACKED);
+            out.writeUTF(secret);
+        } else {
+            out.writeByte(secret.length());
+            out.writeLong(packed);
+        }
+    }
+
+    private String readSecret(final DataInputStream in) throws IOException {
+        int length = in.readByte();
+        return length == UNPACKED ? in.readUTF() : PhotoStore.unpackHex(in.readLong(), length);
+    }
+
+    /**
+     * a value that repeats a lot. the first time it's written whole, after that by its index.
+     */
+    private void writeInterned(final DataOutputStream out, final String value, final Map<String,Integer> interned)
+        throws IOException {
+        Integer index = interned.get(value);
+        if (index != null) {
+            out.writeInt(index);
+        } else {
+            out.writeInt(interned.size());
+            out.writeUTF(value);
+            interned.put(value, interned.size());
+        }
+    }
+
+    private String readInterned(final DataInputStream in, final List<String> interned) throws IOException {
+        int index = in.readInt();
+        if (index == interned.size()) {
+            interned.add(in.readUTF());
+        } else if (index < 0 || index > interned.size()) {
+            throw new IOException("bad interned value " + index);
+        }
+        return interned.get(index);
+    }
+
+    private void writeWoeId(final DataOutputStream out, final String woeId) throws IOException {
+        long packed = woeId == null ? NO_WOEID : PhotoStore.packDecimal(woeId);
+        if (woeId != null && (packed < 0 || packed > Integer.MAX_VALUE)) {
+            out.writeInt(UNPACKED);
+            out.writeUTF(woeId);
+        } else {
+            out.writeInt((int) packed);
+        }
+    }
+
+    private String readWoeId(final DataInputStream in) throws IOException {
+        int packed = in.readInt();
+        if (packed == UNPACKED) {
+            return in.readUTF();
+        }
+        return packed == NO_WOEID ? null : Integer.toString(packed);
+    }
+
+    private void writeStrings(final DataOutputStream out, final Set<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private void readStrings(final DataInputStream in, final Set<String> values) throws IOException {
+        int count = in.readInt();
+        for (int ii=0; ii<count; ii++) {
+            values.add(in.readUTF());
+        }
+    }
+
+    private void writeLongs(final DataOutputStream out, final Map<String,Long> values) throws IOException {
+        out.writeInt(values.size());
+        for (Map.Entry<String,Long> entry : values.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    private void readLongs(final DataInputStream in, final Map<String,Long> values) throws IOException {
+        int count = in.readInt();
+        for (int ii=0; ii<count; ii++) {
+            values.put(in.readUTF(), in.readLong());
+        }
+    }
+
+    private void close(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w("DiscoveryCheckpoint", "close failed: ", e);
+        }
+    }
+}
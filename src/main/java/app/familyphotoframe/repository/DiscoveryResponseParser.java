@@ -0,0 +1,96 @@
+package app.familyphotoframe.repository;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Relationship;
+
+/**
+ * parses the small discovery responses, the profile (test.login) and the contact list pages
+ * (contacts.getList), out of their json.
+ *
+ * photo listings are big enough to have their own streaming decoder, see PhotosPageDecoder.
+ */
+public class DiscoveryResponseParser {
+    private static final String FLICKR_STAT_FIELD = "stat";
+    private static final String FLICKR_STAT_OK = "ok";
+    private static final String FLICKR_MESSAGE_FIELD = "message";
+    private static final String FLICKR_PROFILE_FIELD = "user";
+    private static final String FLICKR_ID_FIELD = "id";
+    private static final String FLICKR_CONTACTS_FIELD = "contacts";
+    private static final String FLICKR_CONTACT_FIELD = "contact";
+    private static final String FLICKR_PAGES_FIELD = "pages";
+    private static final String FLICKR_USERID_FIELD = "nsid";
+    private static final String FLICKR_REALNAME_FIELD = "realname";
+    private static final String FLICKR_USERNAME_FIELD = "username";
+    private static final String FLICKR_FAMILY_FIELD = "family";
+    private static final String FLICKR_FRIEND_FIELD = "friend";
+
+    private DiscoveryResponseParser() {
+    }
+
+    /**
+     * flickr reports errors with a 200 and stat=fail
+     */
+    public static boolean isOk(final JSONObject json) {
+        return FLICKR_STAT_OK.equals(json.optString(FLICKR_STAT_FIELD));
+    }
+
+    /**
+     * @return flickr's message for a stat=fail response
+     */
+    public static String getErrorMessage(final JSONObject json) {
+        return json.optString(FLICKR_MESSAGE_FIELD);
+    }
+
+    /**
+     * @return the logged in user, from a flickr.test.login response
+     */
+    public static Contact parseProfile(final JSONObject json) throws JSONException {
+        JSONObject jsonProfile = json.getJSONObject(FLICKR_PROFILE_FIELD);
+        String userId = jsonProfile.getString(FLICKR_ID_FIELD);
+        return new Contact(userId, "me", Relationship.SELF);
+    }
+
+    /**
+     * @param page the 1-based page that was asked for
+     * @return the contacts on one page of a flickr.contacts.getList response
+     */
+    public static FlickrClient.ContactsPage parseContactsPage(final JSONObject json, final int page) throws JSONException {
+        Set<Contact> contacts = new HashSet<>();
+        int numPages = page;
+        JSONObject jsonPage = json.optJSONObject(FLICKR_CONTACTS_FIELD);
+        if (jsonPage != null) {
+            numPages = jsonPage.optInt(FLICKR_PAGES_FIELD, page);
+        }
+        if (jsonPage != null && jsonPage.has(FLICKR_CONTACT_FIELD)) {
+            JSONArray jsonContacts = jsonPage.getJSONArray(FLICKR_CONTACT_FIELD);
+            for (int ii=0; ii<jsonContacts.length(); ii++) {
+                contacts.add(parseContact(jsonContacts.getJSONObject(ii)));
+            }
+        }
+        return new FlickrClient.ContactsPage(contacts, page, numPages);
+    }
+
+    private static Contact parseContact(final JSONObject jsonContact) throws JSONException {
+        String name = jsonContact.getString(FLICKR_REALNAME_FIELD);
+        if (name == null || name.length() == 0) {
+            name = jsonContact.getString(FLICKR_USERNAME_FIELD);
+        }
+        String userId = jsonContact.getString(FLICKR_USERID_FIELD);
+        Relationship relationship = null;
+        if (jsonContact.getInt(FLICKR_FAMILY_FIELD) == 1) {
+            relationship = Relationship.FAMILY;
+        } else if (jsonContact.getInt(FLICKR_FRIEND_FIELD) == 1) {
+            relationship = Relationship.FRIEND;
+        } else {
+            relationship = Relationship.STRANGER;
+        }
+        return new Contact(userId, name, relationship);
+    }
+}
@@ -1,41 +1,63 @@
 package app.familyphotoframe.repository;
 
 import java.util.Set;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Date;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
+import java.util.Random;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import android.util.Log;
-import java.util.regex.Pattern;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.content.res.Resources;
 
 import com.github.scribejava.apis.FlickrApi;
 import com.github.scribejava.core.builder.api.BaseApi;
 import com.github.scribejava.apis.FlickrApi.FlickrPerm;
 import com.codepath.oauth.OAuthBaseClient;
+import com.google.gson.stream.MalformedJsonException;
+import com.loopj.android.http.AsyncHttpClient;
+import com.loopj.android.http.RequestHandle;
 import com.loopj.android.http.RequestParams;
 import cz.msebera.android.httpclient.Header;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.HttpStatus;
+import cz.msebera.android.httpclient.StatusLine;
+import cz.msebera.android.httpclient.client.HttpResponseException;
+import cz.msebera.android.httpclient.message.BasicHeader;
+import cz.msebera.android.httpclient.util.EntityUtils;
+import com.loopj.android.http.AsyncHttpResponseHandler;
 import com.loopj.android.http.JsonHttpResponseHandler;
+import com.loopj.android.http.ResponseHandlerInterface;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
 import app.familyphotoframe.model.Contact;
 import app.familyphotoframe.model.Photo;
-import app.familyphotoframe.model.Relationship;
 import app.familyphotoframe.R;
 
 /**
  * handles all interactions with flickr.
  *
- * uses oauth client to sign requests.
+ * uses oauth client to sign requests. lookups return a FlickrFuture, which calls back on the
+ * ingest thread and can be cancelled.
  */
 public class FlickrClient extends OAuthBaseClient {
 
@@ -43,39 +65,157 @@ public class FlickrClient extends OAuthBaseClient {
     public static final String REST_URL = "https://api.flickr.com/services/rest";
     public static final String REST_CALLBACK_URL = "oauth://flickrCallback.com";
 
-    private static final String FLICKR_PROFILE_FIELD = "user";
-    private static final String FLICKR_USERNAME_FIELD = "username";
-    private static final String FLICKR_REALNAME_FIELD = "realname";
-    private static final String FLICKR_CONTACTS_FIELD = "contacts";
-    private static final String FLICKR_CONTACT_FIELD = "contact";
-    private static final String FLICKR_USERID_FIELD = "nsid";
-    private static final String FLICKR_FAMILY_FIELD = "family";
-    private static final String FLICKR_FRIEND_FIELD = "friend";
-    private static final String FLICKR_PHOTOS_FIELD = "photos";
-    private static final String FLICKR_PHOTO_FIELD = "photo";
-    private static final String FLICKR_ID_FIELD = "id";
-    private static final String FLICKR_SECRET_FIELD = "secret";
-    private static final String FLICKR_SERVERID_FIELD = "server";
-    private static final String FLICKR_FARMID_FIELD = "farm";
-    private static final String FLICKR_OWNER_FIELD = "owner";
-    private static final String FLICKR_DATETAKEN_FIELD = "datetaken";
-    private static final String FLICKR_WOEID_FIELD = "woeid";
+    private static final String METHOD_TEST_LOGIN = "flickr.test.login";
+    private static final String METHOD_CONTACTS_GETLIST = "flickr.contacts.getList";
+    private static final String METHOD_PEOPLE_GETPHOTOS = "flickr.people.getPhotos";
+    private static final String METHOD_PHOTOS_GETCONTACTSPHOTOS = "flickr.photos.getContactsPhotos";
+    private static final String METHOD_PLACES_GETINFO = "flickr.places.getInfo";
+
     private static final String FLICKR_PLACE_FIELD = "place";
     private static final String FLICKR_WOE_NAME_FIELD = "woe_name";
-    private static final String FLICKR_TITLE_FIELD = "title";
     private static final String FLICKR_DESCRIPTION_FIELD = "description";
     private static final String FLICKR_CONTENT_FIELD = "_content";
-    private static final String FLICKR_DATE_FORMAT = "y-M-d H:m:s";
-    private static final String NO_SPACES = "^[^ ]+$";
-    private static final String HAS_NUMBERS = ".*[0-9].*";
-    private static final String HAS_DELIMETERS = ".*[\\-_].*";
 
-    private static final DateFormat DATE_FORMAT = new SimpleDateFormat(FLICKR_DATE_FORMAT);
+    /** max page size allowed by flickr.people.getPhotos */
+    private static final int PHOTOS_PER_PAGE = 500;
+
+    /** max count allowed by flickr.photos.getContactsPhotos */
+    private static final int RECENT_CONTACTS_PHOTOS = 50;
+
+    /** max page size allowed by flickr.contacts.getList */
+    private static final int CONTACTS_PER_PAGE = 1000;
+
+    /** request limits. flickr allows an api key 3600 requests/hour across all frames. */
+    private static final int MAX_CONCURRENT_REQUESTS = 4;
+    private static final double REQUESTS_PER_SECOND = 2.0;
+    private static final int REQUEST_BURST_SIZE = 10;
+
+    /**
+     * connections to flickr are pooled and kept alive, so a discovery's hundreds of requests
+     * don't each pay for a tls handshake. the pool has room for connections still being
+     * released while new requests start.
+     */
+    private static final int MAX_POOLED_CONNECTIONS = MAX_CONCURRENT_REQUESTS * 2;
+    private static final int CONNECT_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final int RESPONSE_TIMEOUT_MS = (int) TimeUnit.SECONDS.toMillis(20);
+    private static final long KEEP_ALIVE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * transient failures (network errors, 429, 5xx) are retried up to MAX_ATTEMPTS in all, with
+     * exponential backoff. half the backoff is random so frames don't retry in lockstep.
+     */
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** each flickr method has a breaker that opens after this many transient failures in a row */
+    private static final int FAILURES_TO_OPEN_CIRCUIT = 5;
+    private static final long CIRCUIT_COOLDOWN_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_CIRCUIT_COOLDOWN_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String PLACES_CACHE_FILE = "places.cache";
+    private static final int MAX_CACHED_PLACES = 5000;
+
+    /**
+     * profile and contact list responses are reused for this long. the frame syncs every
+     * morning, so this covers a couple of days. full syncs revalidate regardless.
+     */
+    private static final String DISCOVERY_CACHE_FILE = "discovery.cache";
+    private static final long DISCOVERY_CACHE_TTL_MS = TimeUnit.DAYS.toMillis(3);
+
+    /**
+     * request metrics are written here this often, to the app's external files dir so they can
+     * be pulled off a frame with adb
+     */
+    private static final String METRICS_FILE = "flickr-metrics.txt";
+    private static final long METRICS_EXPORT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final String PROFILE_CACHE_KEY = "profile";
+    private static final String CONTACTS_CACHE_KEY = "contacts:";
+
+    /** the account of the client the app logs in with. its files keep their original names. */
+    public static final String DEFAULT_ACCOUNT = "";
+
+    /**
+     * one page of the logged in user's contacts
+     */
+    public static class ContactsPage {
+        public final Set<Contact> contacts;
+        /** 1-based page number */
+        public final int page;
+        public final int numPages;
+
+        public ContactsPage(final Set<Contact> contacts, final int page, final int numPages) {
+            this.contacts = contacts;
+            this.page = page;
+            this.numPages = numPages;
+        }
+
+        public boolean isLastPage() {
+            return page >= numPages;
+        }
+    }
 
     /** identifies this app to flickr */
     private final String apiKey;
 
-    private Map<String,String> placesCache = new ConcurrentHashMap<>();
+    /** names this client's files and cache entries, so clients of other accounts don't share them */
+    private final String account;
+
+    /** place names by woeid, kept across restarts */
+    private final PlaceCache placesCache;
+
+    /** places requests in flight, shared by photos in the same place */
+    private final PlaceLookups placeLookups;
+
+    /** profile and contact list responses, kept across restarts */
+    private final DiscoveryCache discoveryCache;
+
+    /** all requests go through here */
+    private final RequestScheduler scheduler;
+
+    /** connection reuse and compression, with counters */
+    private final HttpTransport transport;
+
+    /** latency, outcomes and bytes per flickr method */
+    private final RequestMetrics metrics;
+
+    /** writes the metrics file, then reschedules itself until shutdown() */
+    private final Runnable metricsExportTask;
+    /** guarded by statsLock */
+    private boolean metricsExportScheduled;
+
+    /** retries wait here */
+    private final Handler retryHandler;
+
+    /**
+     * responses are decoded on the network threads, then handed to the collection here, one at a
+     * time and off the ui thread.
+     */
+    private final ThreadPoolExecutor ingestExecutor;
+
+    /** breakers by flickr method */
+    private final Map<String,CircuitBreaker> circuitBreakers = new HashMap<>();
+
+    private final Random backoffRandom = new Random();
+
+    /** guards the counts below */
+    private final Object statsLock = new Object();
+
+    /** count of requests sent again after a transient failure */
+    private int numRetries;
+
+    /** count of requests that failed for good after all attempts */
+    private int numRequestsAbandoned;
+
+    /** time spent decoding photo pages, on the network threads */
+    private int numPagesDecoded;
+    private long totalDecodeNanos;
+    private long maxDecodeNanos;
+
+    /** time spent handing responses to the collection, on the ingest thread */
+    private int numIngested;
+    private long totalIngestNanos;
 
 
     /**
@@ -84,6 +224,17 @@ public class FlickrClient extends OAuthBaseClient {
      * @param contect android app context
      */
     public FlickrClient(final Context context) {
+        this(context, DEFAULT_ACCOUNT);
+    }
+
+    /**
+     * ctor for a client of another account. the cached profile, contact lists, places and
+     * metrics are kept apart from other accounts' clients.
+     *
+     * @param contect android app context
+     * @param account a name for the account, unique among the app's clients
+     */
+    public FlickrClient(final Context context, final String account) {
         super(context,
               REST_API_INSTANCE,
               REST_URL,
@@ -91,256 +242,967 @@ public class FlickrClient extends OAuthBaseClient {
               context.getResources().getString(R.string.flickr_api_secret),
               REST_CALLBACK_URL);
         apiKey = context.getResources().getString(R.string.flickr_api_key);
+        this.account = account;
+        scheduler = new RequestScheduler(MAX_CONCURRENT_REQUESTS, REQUESTS_PER_SECOND, REQUEST_BURST_SIZE);
+        placesCache = new PlaceCache(new File(context.getFilesDir(), getAccountFileName(PLACES_CACHE_FILE)), MAX_CACHED_PLACES);
+        discoveryCache = new DiscoveryCache(new File(context.getFilesDir(), getAccountFileName(DISCOVERY_CACHE_FILE)), DISCOVERY_CACHE_TTL_MS);
+        retryHandler = new Handler(Looper.getMainLooper());
+        placeLookups = new PlaceLookups(placesCache, new PlaceLookups.Sender() {
+                public Runnable send(final String woeId) {
+                    RequestParams params = makeRequestParams(METHOD_PLACES_GETINFO);
+                    params.put("woe_id", woeId);
+                    final ScheduledRequest request = scheduleGet(RequestScheduler.Priority.PLACES, METHOD_PLACES_GETINFO,
+                                                                 getApiUrl(""), params, new PlaceResponseHandler(woeId));
+                    return new Runnable() {
+                        public void run() {
+                            request.cancel();
+                        }
+                    };
+                }
+            }, new Executor() {
+                public void execute(final Runnable task) {
+                    ingest(task);
+                }
+            });
+        ingestExecutor = newIngestExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable task) {
+                    return new Thread(new Runnable() {
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                task.run();
+                            }
+                        }, "FlickrIngest");
+                }
+            });
+        // loopj's own retries sleep on a pool thread at a fixed interval. ours back off instead.
+        client.setMaxRetriesAndTimeout(0, AsyncHttpClient.DEFAULT_SOCKET_TIMEOUT);
+        transport = new HttpTransport(MAX_POOLED_CONNECTIONS, CONNECT_TIMEOUT_MS, RESPONSE_TIMEOUT_MS, KEEP_ALIVE_MS);
+        transport.install(client);
+
+        File metricsDir = context.getExternalFilesDir(null);
+        metrics = new RequestMetrics(new File(metricsDir != null ? metricsDir : context.getFilesDir(),
+                                              getAccountFileName(METRICS_FILE)));
+        metricsExportTask = new Runnable() {
+                public void run() {
+                    synchronized (statsLock) {
+                        if (!metricsExportScheduled) {
+                            return;
+                        }
+                        retryHandler.postDelayed(this, METRICS_EXPORT_INTERVAL_MS);
+                    }
+                    metrics.exportInBackground();
+                }
+            };
+        startMetricsExport();
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    /**
+     * @return the name of one of this client's files
+     */
+    private String getAccountFileName(final String name) {
+        return DEFAULT_ACCOUNT.equals(account) ? name : account + "-" + name;
+    }
+
+    /**
+     * @return the key of one of this client's cached responses
+     */
+    private String getAccountCacheKey(final String key) {
+        return DEFAULT_ACCOUNT.equals(account) ? key : account + ":" + key;
     }
 
     public void logout() {
         clearAccessToken();
+        discoveryCache.clear();
+    }
+
+    /**
+     * stop the periodic metrics export and let its thread go. the client is shared, so the
+     * export starts again with the next discovery if it's used after this.
+     */
+    public void shutdown() {
+        synchronized (statsLock) {
+            metricsExportScheduled = false;
+            retryHandler.removeCallbacks(metricsExportTask);
+        }
+        metrics.shutdown();
+    }
+
+    private void startMetricsExport() {
+        synchronized (statsLock) {
+            if (!metricsExportScheduled) {
+                metricsExportScheduled = true;
+                retryHandler.postDelayed(metricsExportTask, METRICS_EXPORT_INTERVAL_MS);
+            }
+        }
     }
 
     /**
      * get logged in user's profile info from flickr
      *
-     * @param photoCollection holds photos
+     * @param forceRefresh if true, ask flickr even if the cached profile is fresh
+     * @return the logged in user
      */
-    public void lookupProfile(final PhotoCollection photoCollection) {
-        RequestParams params = makeRequestParams();
-        params.put("method", "flickr.test.login");
+    public FlickrFuture<Contact> lookupProfile(final boolean forceRefresh) {
+        RequestParams params = makeRequestParams(METHOD_TEST_LOGIN);
 
         String apiUrl = getApiUrl("");
         Log.d("FlickrClient", "apiUrl: " + apiUrl);
         Log.d("FlickrClient", "params: " + params);
 
-        client.get(apiUrl, params, new ProfileResponseHandler(photoCollection));
+        return getCacheable(METHOD_TEST_LOGIN, forceRefresh, apiUrl, params, new ProfileResponseHandler());
     }
 
     /**
-     * get logged in user's relations from flickr
+     * get one page of logged in user's relations from flickr
      *
-     * @param photoCollection holds photos
+     * @param forceRefresh if true, ask flickr even if the cached page is fresh
+     * @param page 1-based page number
      */
-    public void lookupContacts(final PhotoCollection photoCollection) {
-        RequestParams params = makeRequestParams();
-        params.put("method", "flickr.contacts.getList");
+    public FlickrFuture<ContactsPage> lookupContacts(final boolean forceRefresh, final int page) {
+        RequestParams params = makeRequestParams(METHOD_CONTACTS_GETLIST);
+        params.put("per_page", CONTACTS_PER_PAGE);
+        params.put("page", page);
 
         String apiUrl = getApiUrl("");
         Log.d("FlickrClient", "apiUrl: " + apiUrl);
         Log.d("FlickrClient", "params: " + params);
 
-        client.get(apiUrl, params, new ContactsResponseHandler(photoCollection));
+        return getCacheable(METHOD_CONTACTS_GETLIST, forceRefresh, apiUrl, params, new ContactsResponseHandler(page));
     }
 
     /**
-     * get list of the given flickr user's photos
+     * get one page of the given flickr user's photos
      *
-     * @param photoCollection holds photos
+     * @param contactLookup resolves the owners of the photos
      * @param contact a flickr user
+     * @param minUploadDate unix time (secs), only photos uploaded since then are listed. 0 lists all.
+     * @param page 1-based page number
      */
-    public void lookupPhotos(final PhotoCollection photoCollection, final Contact contact) {
-        RequestParams params = makeRequestParams();
-        params.put("method", "flickr.people.getPhotos");
+    public FlickrFuture<PhotosPageDecoder.PhotosPage> lookupPhotos(final PhotosPageDecoder.ContactLookup contactLookup,
+                                                                   final Contact contact, final long minUploadDate,
+                                                                   final int page) {
+        RequestParams params = makeRequestParams(METHOD_PEOPLE_GETPHOTOS);
         params.put("user_id", contact.getUserId());
         params.put("safe_search", 1);
         params.put("content_type", 1);
-        params.put("extras", "date_taken,geo,original_format");
-        params.put("per_page", 500);
+        params.put("extras", "date_taken,date_upload,geo,original_format");
+        params.put("per_page", PHOTOS_PER_PAGE);
+        params.put("page", page);
+        if (minUploadDate > 0) {
+            params.put("min_upload_date", minUploadDate);
+        }
+
+        String apiUrl = getApiUrl("");
+        Log.d("FlickrClient", "apiUrl: " + apiUrl);
+        Log.d("FlickrClient", "params: " + params);
+
+        PhotosResponseHandler handler = new PhotosResponseHandler(contactLookup, contact + " page " + page);
+        cancelWith(handler.future, scheduleGet(RequestScheduler.Priority.PHOTOS, METHOD_PEOPLE_GETPHOTOS, apiUrl, params, handler));
+        return handler.future;
+    }
+
+    /**
+     * get the latest photos of all of the logged in user's contacts, and the user's own, in one
+     * request. it's a single page of at most RECENT_CONTACTS_PHOTOS photos, enough to start the
+     * show before the per-contact listings are in. it's sent with the discovery requests since
+     * the show waits on it.
+     *
+     * @param ownerLookup resolves the owners of the photos, adding ones it doesn't know yet
+     */
+    public FlickrFuture<PhotosPageDecoder.PhotosPage> lookupRecentContactsPhotos(final PhotosPageDecoder.OwnerLookup ownerLookup) {
+        RequestParams params = makeRequestParams(METHOD_PHOTOS_GETCONTACTSPHOTOS);
+        params.put("count", RECENT_CONTACTS_PHOTOS);
+        params.put("just_friends", 0);
+        params.put("single_photo", 0);
+        params.put("include_self", 1);
+        params.put("extras", "date_taken,date_upload,geo,original_format");
 
         String apiUrl = getApiUrl("");
         Log.d("FlickrClient", "apiUrl: " + apiUrl);
         Log.d("FlickrClient", "params: " + params);
 
-        client.get(apiUrl, params, new PhotosResponseHandler(photoCollection));
+        PhotosResponseHandler handler = new PhotosResponseHandler(ownerLookup, "recent photos of all contacts");
+        cancelWith(handler.future, scheduleGet(RequestScheduler.Priority.DISCOVERY, METHOD_PHOTOS_GETCONTACTSPHOTOS, apiUrl,
+                                               params, handler));
+        return handler.future;
     }
 
-    public void lookupPlace(final Photo photo) {
+    /**
+     * fill in the photo's place name. photos in the same place share one request, which is only
+     * aborted once every future waiting on it has been cancelled.
+     *
+     * @return the place name, or null if flickr doesn't have one or the request failed
+     */
+    public FlickrFuture<String> lookupPlace(final Photo photo) {
         if (photo.getLocation() != null || photo.getWoeId() == null || photo.getWoeId().isEmpty()) {
             Log.d("FlickrClient", "no need to lookup place: hasLocation? " + (photo.getLocation()!=null)+ ", missing woeid? " +(photo.getWoeId()==null));
-            return;
+            return FlickrFuture.completed(photo.getLocation());
         }
-        if (placesCache.containsKey(photo.getWoeId())) {
-            Log.d("FlickrClient", "places cache hit");
-            photo.setLocation(placesCache.get(photo.getWoeId()));
-            return;
+        return placeLookups.lookup(photo);
+    }
+
+    /**
+     * resolve places for photos ahead of when they're displayed.
+     */
+    public void lookupPlaces(final Collection<Photo> photos) {
+        for (Photo photo : photos) {
+            lookupPlace(photo);
         }
+    }
 
-        RequestParams params = makeRequestParams();
-        params.put("method", "flickr.places.getInfo");
-        params.put("woe_id", photo.getWoeId());
+    /**
+     * the collection is starting a discovery with this client
+     */
+    public void discoveryStarted() {
+        startMetricsExport();
+        metrics.discoveryStarted();
+    }
 
-        String apiUrl = getApiUrl("");
+    /**
+     * @return per method request metrics, which dumpStatsToLog() also logs
+     */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * log request scheduler stats
+     */
+    public void dumpStatsToLog() {
+        scheduler.dumpToLog();
+        transport.dumpToLog();
+        metrics.dumpToLog();
+        synchronized (statsLock) {
+            Log.i("FlickrClient", "retries: " + numRetries + ", abandoned: " + numRequestsAbandoned);
+            if (numPagesDecoded > 0) {
+                Log.i("FlickrClient", "photo pages decoded: " + numPagesDecoded
+                      + ", avg " + TimeUnit.NANOSECONDS.toMillis(totalDecodeNanos / numPagesDecoded) + " ms"
+                      + ", max " + TimeUnit.NANOSECONDS.toMillis(maxDecodeNanos) + " ms");
+            }
+            if (numIngested > 0) {
+                Log.i("FlickrClient", "responses ingested: " + numIngested
+                      + ", avg " + TimeUnit.NANOSECONDS.toMillis(totalIngestNanos / numIngested) + " ms");
+            }
+        }
+        synchronized (circuitBreakers) {
+            for (Map.Entry<String,CircuitBreaker> entry : circuitBreakers.entrySet()) {
+                Log.i("FlickrClient", "  " + entry.getKey() + " circuit opened " + entry.getValue().getTimesOpened() + " times");
+            }
+        }
+    }
+
+    /**
+     * answer a discovery request from the cache if we can. otherwise queue it, asking flickr to
+     * skip the body if our cached copy is still current.
+     *
+     * @return the handler's future
+     */
+    private <T> FlickrFuture<T> getCacheable(final String method, final boolean forceRefresh, final String apiUrl,
+                                             final RequestParams params, final CacheableResponseHandler<T> handler) {
+        if (!forceRefresh) {
+            DiscoveryCache.Entry entry = discoveryCache.getFresh(handler.cacheKey);
+            JSONObject json = entry == null ? null : parseCached(entry);
+            if (json != null) {
+                Log.i("FlickrClient", "using cached " + handler.cacheKey);
+                // delivered on the ingest thread, like a network response
+                handler.deliver(json);
+                return handler.future;
+            }
+        }
+        DiscoveryCache.Entry entry = discoveryCache.get(handler.cacheKey);
+        Header[] headers = null;
+        if (entry != null && entry.etag != null) {
+            headers = new Header[] {new BasicHeader("If-None-Match", entry.etag)};
+        }
+        cancelWith(handler.future, scheduleGet(RequestScheduler.Priority.DISCOVERY, method, apiUrl, headers, params, handler));
+        return handler.future;
+    }
+
+    /**
+     * @return the cached response, or null if it's corrupt
+     */
+    private JSONObject parseCached(final DiscoveryCache.Entry entry) {
+        try {
+            return new JSONObject(entry.body);
+        } catch (JSONException e) {
+            Log.w("FlickrClient", "ignoring corrupt cached response: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * queue a GET with the scheduler. the handler gives the slot back when the request finishes.
+     */
+    private ScheduledRequest scheduleGet(final RequestScheduler.Priority priority, final String method, final String apiUrl,
+                                         final RequestParams params, final ScheduledHandler handler) {
+        return scheduleGet(priority, method, apiUrl, null, params, handler);
+    }
+
+    /**
+     * @param method flickr method, picks the circuit breaker
+     * @param headers extra request headers, or null
+     */
+    private ScheduledRequest scheduleGet(final RequestScheduler.Priority priority, final String method, final String apiUrl,
+                                         final Header[] headers, final RequestParams params, final ScheduledHandler handler) {
+        ScheduledRequest request = new ScheduledRequest(priority, method, getCircuitBreaker(method), apiUrl, headers, params,
+                                                        handler);
+        handler.setScheduledRequest(request);
+        request.send();
+        return request;
+    }
+
+    /**
+     * abort the request if the future is cancelled
+     */
+    private void cancelWith(final FlickrFuture<?> future, final ScheduledRequest request) {
+        future.setCanceller(new Runnable() {
+                public void run() {
+                    request.cancel();
+                }
+            });
+    }
 
-        Log.i("FlickrClient", "starting places request for " + photo);
-        client.get(apiUrl, params, new PlaceResponseHandler(photo));
+    private CircuitBreaker getCircuitBreaker(final String method) {
+        synchronized (circuitBreakers) {
+            CircuitBreaker breaker = circuitBreakers.get(method);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(method, FAILURES_TO_OPEN_CIRCUIT, CIRCUIT_COOLDOWN_MS, MAX_CIRCUIT_COOLDOWN_MS);
+                circuitBreakers.put(method, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * one thread, and a queue without a bound. tasks are handed over from the network threads and
+     * from the ui thread (cache hits, place lookups), so a full queue can't be allowed to run a
+     * task on the thread that handed it over. the requests in flight are capped by the
+     * scheduler, which keeps the queue short.
+     */
+    static ThreadPoolExecutor newIngestExecutor(final ThreadFactory threadFactory) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
     }
 
-    private RequestParams makeRequestParams() {
+    /**
+     * run a task that touches the collection on the ingest thread, timing it
+     */
+    private void ingest(final Runnable task) {
+        ingestExecutor.execute(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    task.run();
+                    long elapsed = System.nanoTime() - start;
+                    synchronized (statsLock) {
+                        numIngested++;
+                        totalIngestNanos += elapsed;
+                    }
+                }
+            });
+    }
+
+    /**
+     * complete the future on the ingest thread
+     */
+    private <T> void deliverResult(final FlickrFuture<T> future, final T result) {
+        ingest(new Runnable() {
+                public void run() {
+                    future.complete(result);
+                }
+            });
+    }
+
+    private void deliverFailure(final FlickrFuture<?> future, final Throwable err) {
+        ingest(new Runnable() {
+                public void run() {
+                    future.fail(err);
+                }
+            });
+    }
+
+    private void recordPageDecoded(final long elapsedNanos) {
+        synchronized (statsLock) {
+            numPagesDecoded++;
+            totalDecodeNanos += elapsedNanos;
+            maxDecodeNanos = Math.max(maxDecodeNanos, elapsedNanos);
+        }
+    }
+
+    /**
+     * @return ms to wait before the given retry (1 for the first). half is fixed, half random.
+     */
+    private long getBackoffMs(final int retry) {
+        long backoffMs = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(retry - 1, 20));
+        synchronized (backoffRandom) {
+            return backoffMs / 2 + (long) (backoffRandom.nextDouble() * backoffMs / 2);
+        }
+    }
+
+    /**
+     * network errors, throttling and server errors may not happen again. 4xx and bad responses
+     * will.
+     *
+     * a body that arrived whole but doesn't decode is a bad response, even though gson reports it
+     * as an IOException. a body cut short fails in the http stream first, which is a network
+     * error.
+     */
+    static boolean isTransient(final int statusCode, final Throwable err) {
+        if (statusCode == 429 || statusCode >= 500) {
+            return true;
+        }
+        if (err instanceof MalformedJsonException) {
+            return false;
+        }
+        return err instanceof IOException && !(err instanceof HttpResponseException);
+    }
+
+    private RequestParams makeRequestParams(final String method) {
         RequestParams params = new RequestParams();
+        params.put("method", method);
         params.put("nojsoncallback", "1");
         params.put("format", "json");
         params.put("api_key", apiKey);
         return params;
     }
 
-    class ProfileResponseHandler extends JsonHttpResponseHandler {
-        private PhotoCollection photoCollection;
+    /**
+     * one logical request. it goes through the scheduler and its endpoint's circuit breaker, and
+     * is sent again with the same handler after a transient failure. cancelling it stops it
+     * wherever it is: queued, in flight or waiting to be retried.
+     */
+    class ScheduledRequest {
+        private final RequestScheduler.Priority priority;
+        private final String method;
+        private final CircuitBreaker breaker;
+        private final String apiUrl;
+        private final Header[] headers;
+        private final RequestParams params;
+        private final ScheduledHandler handler;
+        private final Runnable sendTask;
+        private final Runnable retryTask;
+        /** true while an attempt holds a scheduler slot */
+        private final AtomicBoolean holdingSlot = new AtomicBoolean();
+        private int attempt;
+        private boolean cancelled;
+        private RequestHandle requestHandle;
+        /** when the attempt in flight went out, or 0 if there isn't one */
+        private long attemptStartNanos;
+        /** status and wire bytes of the attempt's response, once it arrives */
+        private int responseStatusCode;
+        private long responseBytes;
+
+        /**
+         * @param method flickr method, for metrics
+         */
+        public ScheduledRequest(final RequestScheduler.Priority priority, final String method, final CircuitBreaker breaker,
+                                final String apiUrl, final Header[] headers, final RequestParams params,
+                                final ScheduledHandler handler) {
+            this.priority = priority;
+            this.method = method;
+            this.breaker = breaker;
+            this.apiUrl = apiUrl;
+            this.headers = headers;
+            this.params = params;
+            this.handler = handler;
+            attempt = 1;
+            sendTask = new Runnable() {
+                    public void run() {
+                        holdingSlot.set(true);
+                        if (isCancelled()) {
+                            finished(true);
+                            return;
+                        }
+                        if (!breaker.allowRequest()) {
+                            // turned away without touching the network. this still takes the
+                            // failure path so it can be retried. it's posted rather than run
+                            // here, since finishing starts the next queued request, which may be
+                            // turned away too.
+                            retryHandler.post(new Runnable() {
+                                    public void run() {
+                                        handler.sendFailureMessage(0, null, null, new CircuitBreaker.OpenException(breaker.getName()));
+                                        handler.sendFinishMessage();
+                                    }
+                                });
+                            return;
+                        }
+                        attemptStarted();
+                        RequestHandle handle = client.get(null, apiUrl, headers, params, handler);
+                        boolean cancelledMeanwhile;
+                        synchronized (ScheduledRequest.this) {
+                            requestHandle = handle;
+                            cancelledMeanwhile = cancelled;
+                        }
+                        if (cancelledMeanwhile) {
+                            handle.cancel(true);
+                        }
+                    }
+                };
+            retryTask = new Runnable() {
+                    public void run() {
+                        send();
+                    }
+                };
+        }
+
+        public void send() {
+            scheduler.submit(priority, sendTask);
+        }
+
+        public void cancel() {
+            RequestHandle handle;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                handle = requestHandle;
+            }
+            scheduler.cancel(sendTask);
+            retryHandler.removeCallbacks(retryTask);
+            if (handle != null) {
+                // loopj calls onCancel, which gives the slot back
+                handle.cancel(true);
+            }
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * an attempt is over, successfully or not, or was cancelled. gives its scheduler slot
+         * back, once.
+         *
+         * @param cancelled true if it was cancelled, in which case it isn't counted as completed
+         */
+        public void finished(final boolean cancelled) {
+            if (recordAttempt(cancelled) && cancelled) {
+                // a cancelled request never reports to the breaker. if it was the trial, the
+                // breaker would wait on it forever.
+                breaker.recordCancelled();
+            }
+            if (holdingSlot.compareAndSet(true, false)) {
+                scheduler.requestFinished();
+            }
+        }
+
+        /**
+         * called on the network thread when any http response arrives, once its body has been
+         * read
+         *
+         * @param wireBytes body bytes as they arrived, or -1 if unknown
+         */
+        public void responseReceived(final int statusCode, final long wireBytes) {
+            synchronized (this) {
+                responseStatusCode = statusCode;
+                responseBytes = wireBytes;
+            }
+            if (!isTransient(statusCode, null)) {
+                breaker.recordSuccess();
+            }
+        }
+
+        private void attemptStarted() {
+            synchronized (this) {
+                attemptStartNanos = System.nanoTime();
+                responseStatusCode = RequestMetrics.NO_RESPONSE;
+                responseBytes = -1;
+            }
+            metrics.requestStarted(method);
+        }
+
+        /**
+         * @return true if there was an attempt in flight
+         */
+        private boolean recordAttempt(final boolean cancelled) {
+            long elapsedNanos;
+            int statusCode;
+            long wireBytes;
+            synchronized (this) {
+                if (attemptStartNanos == 0) {
+                    return false;
+                }
+                elapsedNanos = System.nanoTime() - attemptStartNanos;
+                attemptStartNanos = 0;
+                statusCode = responseStatusCode;
+                wireBytes = responseBytes;
+            }
+            if (cancelled) {
+                metrics.requestCancelled(method);
+            } else {
+                metrics.requestFinished(method, handler.getLabel(), elapsedNanos, statusCode,
+                                        statusCode >= 200 && statusCode < 400, wireBytes);
+            }
+            return true;
+        }
+
+        /**
+         * called on the network thread when the request failed.
+         *
+         * @return true if the request will be sent again, in which case the handler shouldn't
+         *         report the failure
+         */
+        public boolean retryIfTransient(final int statusCode, final Throwable err) {
+            if (isCancelled()) {
+                return false;
+            }
+            boolean turnedAway = err instanceof CircuitBreaker.OpenException;
+            if (!turnedAway && !isTransient(statusCode, err)) {
+                return false;
+            }
+            if (!turnedAway) {
+                breaker.recordFailure();
+            }
+            if (attempt >= MAX_ATTEMPTS) {
+                Log.w("FlickrClient", "giving up after " + attempt + " attempts: " + err);
+                synchronized (statsLock) {
+                    numRequestsAbandoned++;
+                }
+                return false;
+            }
+            long delayMs = Math.max(getBackoffMs(attempt), breaker.getDelayMs());
+            attempt++;
+            Log.i("FlickrClient", "retrying in " + delayMs + " ms, attempt " + attempt + ": " + err);
+            synchronized (statsLock) {
+                numRetries++;
+            }
+            retryHandler.postDelayed(retryTask, delayMs);
+            return true;
+        }
+    }
+
+    /**
+     * a response handler that can be sent by ScheduledRequest
+     */
+    interface ScheduledHandler extends ResponseHandlerInterface {
+        void setScheduledRequest(ScheduledRequest request);
+
+        /**
+         * @return what's being requested, for the metrics
+         */
+        String getLabel();
+    }
+
+    /**
+     * base for handlers of scheduled requests with json responses. every failure callback loopj
+     * might call ends up in onError, once retries are used up.
+     */
+    abstract class ScheduledResponseHandler extends JsonHttpResponseHandler implements ScheduledHandler {
+        private ScheduledRequest request;
+
+        public ScheduledResponseHandler() {
+            // parse and call back on the network thread. otherwise loopj parses on a new thread
+            // and calls back on the thread that made the handler, often the ui thread.
+            setUsePoolThread(true);
+        }
 
-        public ProfileResponseHandler(final PhotoCollection photoCollection) {
-            this.photoCollection = photoCollection;
+        @Override
+        public void setScheduledRequest(final ScheduledRequest request) {
+            this.request = request;
         }
 
+        /**
+         * called when the request failed for good
+         */
+        public abstract void onError(int statusCode, Throwable err);
+
         @Override
-        public void onStart() {
-            Log.i("FlickrClient", "profile request started");
+        public void onPostProcessResponse(ResponseHandlerInterface instance, HttpResponse response) {
+            request.responseReceived(response.getStatusLine().getStatusCode(), transport.getWireBytes(response));
         }
 
         @Override
-        public void onSuccess(int statusCode, Header[] headers, JSONObject json) {
-            try {
-                Log.i("FlickrClient", "got profile: " + json);
-                Set<Contact> profile = new HashSet<>();
-                JSONObject jsonProfile = json.getJSONObject(FLICKR_PROFILE_FIELD);
-                String userId = jsonProfile.getString(FLICKR_ID_FIELD);
-                Contact self = new Contact(userId, "me", Relationship.SELF);
-                photoCollection.addProfileAndContinueDiscovery(self);
-            } catch (JSONException e) {
-                Log.e("FlickrClient", "getProfile JSONException: ", e);
-            }
+        public void onFinish() {
+            request.finished(false);
+        }
+
+        @Override
+        public void onCancel() {
+            request.finished(true);
         }
 
         @Override
         public void onFailure(int statusCode, Header[] headers, Throwable err, JSONObject json) {
-            Log.e("FlickrClient", "fail: " + err);
-            photoCollection.reportDiscoveryFailure();
+            failed(statusCode, err);
+        }
+
+        // loopj calls this one instead if the error body happens to be a json array.
+        // https://github.com/loopj/android-async-http/issues/91
+        @Override
+        public void onFailure(int statusCode, Header[] headers, Throwable err, JSONArray json) {
+            failed(statusCode, err);
+        }
+
+        @Override
+        public void onFailure(int statusCode, Header[] headers, String responseString, Throwable err) {
+            failed(statusCode, err);
+        }
+
+        private void failed(final int statusCode, final Throwable err) {
+            if (!request.retryIfTransient(statusCode, err)) {
+                onError(statusCode, err);
+            }
         }
     }
 
-    // TODO paging
-    class ContactsResponseHandler extends JsonHttpResponseHandler {
-        private PhotoCollection photoCollection;
+    /**
+     * base for handlers of scheduled requests that read the raw response themselves
+     */
+    abstract class ScheduledStreamResponseHandler extends AsyncHttpResponseHandler implements ScheduledHandler {
+        private ScheduledRequest request;
+
+        public ScheduledStreamResponseHandler() {
+            // call back on the network thread
+            setUsePoolThread(true);
+        }
 
-        public ContactsResponseHandler(final PhotoCollection photoCollection) {
-            this.photoCollection = photoCollection;
+        @Override
+        public void setScheduledRequest(final ScheduledRequest request) {
+            this.request = request;
         }
 
+        /**
+         * called when the request failed for good
+         */
+        public abstract void onError(int statusCode, Throwable err);
+
         @Override
-        public void onStart() {
-            Log.d("FlickrClient", "contacts request started");
+        public void onPostProcessResponse(ResponseHandlerInterface instance, HttpResponse response) {
+            request.responseReceived(response.getStatusLine().getStatusCode(), transport.getWireBytes(response));
+        }
+
+        @Override
+        public void onFinish() {
+            request.finished(false);
+        }
+
+        @Override
+        public void onCancel() {
+            request.finished(true);
+        }
+
+        @Override
+        public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable err) {
+            if (!request.retryIfTransient(statusCode, err)) {
+                onError(statusCode, err);
+            }
+        }
+    }
+
+    /**
+     * base for handlers of discovery requests. good responses are cached, and a 304 is answered
+     * with the cached copy. either way the json is parsed on the calling thread and the result
+     * is delivered on the ingest thread.
+     */
+    abstract class CacheableResponseHandler<T> extends ScheduledResponseHandler {
+        private final String cacheKey;
+        final FlickrFuture<T> future = new FlickrFuture<>();
+
+        public CacheableResponseHandler(final String cacheKey) {
+            this.cacheKey = cacheKey;
+        }
+
+        /**
+         * turn a stat=ok response into the result
+         */
+        public abstract T parse(JSONObject json) throws JSONException;
+
+        @Override
+        public String getLabel() {
+            return cacheKey;
         }
 
         @Override
         public void onSuccess(int statusCode, Header[] headers, JSONObject json) {
-            Set<Contact> contacts = new HashSet<>();
-            try {
-                if (json.has(FLICKR_CONTACTS_FIELD) && json.getJSONObject(FLICKR_CONTACTS_FIELD).has(FLICKR_CONTACT_FIELD)) {
-                    JSONArray jsonContacts = json.getJSONObject(FLICKR_CONTACTS_FIELD).getJSONArray(FLICKR_CONTACT_FIELD);
-                    for (int ii=0; ii<jsonContacts.length(); ii++) {
-                        JSONObject jsonContact = jsonContacts.getJSONObject(ii);
-                        Log.d("FlickrClient", "got jsonContact: " + jsonContact);
-                        String name = jsonContact.getString(FLICKR_REALNAME_FIELD);
-                        if (name == null || name.length() == 0) {
-                            name = jsonContact.getString(FLICKR_USERNAME_FIELD);
-                        }
-                        String userId = jsonContact.getString(FLICKR_USERID_FIELD);
-                        Relationship relationship = null;
-                        if (jsonContact.getInt(FLICKR_FAMILY_FIELD) == 1) {
-                            relationship = Relationship.FAMILY;
-                        } else if (jsonContact.getInt(FLICKR_FRIEND_FIELD) == 1) {
-                            relationship = Relationship.FRIEND;
-                        } else {
-                            relationship = Relationship.STRANGER;
+            // flickr reports errors with a 200, don't cache those
+            if (DiscoveryResponseParser.isOk(json)) {
+                String etag = null;
+                if (headers != null) {
+                    for (Header header : headers) {
+                        if ("ETag".equalsIgnoreCase(header.getName())) {
+                            etag = header.getValue();
                         }
-                        contacts.add(new Contact(userId, name, relationship));
                     }
                 }
+                discoveryCache.put(cacheKey, json.toString(), etag);
+            }
+            deliver(json);
+        }
+
+        @Override
+        public void onError(final int statusCode, final Throwable err) {
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+                DiscoveryCache.Entry entry = discoveryCache.revalidated(cacheKey);
+                JSONObject json = entry == null ? null : parseCached(entry);
+                if (json != null) {
+                    Log.i("FlickrClient", "cached " + cacheKey + " is still current");
+                    deliver(json);
+                    return;
+                }
+            }
+            Log.e("FlickrClient", "fail: " + err);
+            deliverFailure(future, err);
+        }
+
+        void deliver(final JSONObject json) {
+            if (!DiscoveryResponseParser.isOk(json)) {
+                Log.e("FlickrClient", "flickr error for " + cacheKey + ": " + json);
+                deliverFailure(future, new IOException("flickr error: " + DiscoveryResponseParser.getErrorMessage(json)));
+                return;
+            }
+            try {
+                deliverResult(future, parse(json));
             } catch (JSONException e) {
-                Log.e("FlickrClient", "getContacts JSONException: ", e);
+                Log.e("FlickrClient", "JSONException parsing " + cacheKey + ": ", e);
+                deliverFailure(future, e);
             }
-            photoCollection.addContactsAndContinueDiscovery(contacts);
+        }
+    }
+
+    class ProfileResponseHandler extends CacheableResponseHandler<Contact> {
+
+        public ProfileResponseHandler() {
+            super(getAccountCacheKey(PROFILE_CACHE_KEY));
         }
 
         @Override
-        public void onFailure(int statusCode, Header[] headers, Throwable err, JSONObject json) {
-            photoCollection.reportDiscoveryFailure();
+        public void onStart() {
+            Log.i("FlickrClient", "profile request started");
+        }
+
+        @Override
+        public Contact parse(JSONObject json) throws JSONException {
+            Log.i("FlickrClient", "got profile: " + json);
+            return DiscoveryResponseParser.parseProfile(json);
         }
     }
 
-    // TODO paging
-    class PhotosResponseHandler extends JsonHttpResponseHandler {
-        private PhotoCollection photoCollection;
+    class ContactsResponseHandler extends CacheableResponseHandler<ContactsPage> {
+        private int page;
 
-        public PhotosResponseHandler(final PhotoCollection photoCollection) {
-            this.photoCollection = photoCollection;
+        public ContactsResponseHandler(final int page) {
+            super(getAccountCacheKey(CONTACTS_CACHE_KEY + page));
+            this.page = page;
         }
 
         @Override
         public void onStart() {
-            Log.i("FlickrClient", "photos request started for a contact");
+            Log.d("FlickrClient", "contacts request started, page " + page);
         }
 
         @Override
-        public void onSuccess(int statusCode, Header[] headers, JSONObject json) {
-            try {
-                // Log.d("FlickrClient", "got photos: " + json);
-                if (json.has(FLICKR_PHOTOS_FIELD) && json.getJSONObject(FLICKR_PHOTOS_FIELD).has(FLICKR_PHOTO_FIELD)) {
-                    JSONArray jsonPhotos = json.getJSONObject(FLICKR_PHOTOS_FIELD).getJSONArray(FLICKR_PHOTO_FIELD);
-                    for (int ii=0; ii<jsonPhotos.length(); ii++) {
-                        JSONObject jsonPhoto = jsonPhotos.getJSONObject(ii);
-
-                        String format = jsonPhoto.getString("originalformat");
-                        if (!"png".equalsIgnoreCase(format) && !"jpg".equalsIgnoreCase(format)) {
-                            Log.d("FlickrClient", "skipping format: " + format);
-                            continue;
-                        }
+        public ContactsPage parse(JSONObject json) throws JSONException {
+            ContactsPage contactsPage = DiscoveryResponseParser.parseContactsPage(json, page);
+            Log.d("FlickrClient", "got " + contactsPage.contacts.size() + " contacts on page " + page + " of " + contactsPage.numPages);
+            return contactsPage;
+        }
+    }
 
-                        String id = jsonPhoto.getString(FLICKR_ID_FIELD);
-                        String secret = jsonPhoto.getString(FLICKR_SECRET_FIELD);
-                        String serverId = jsonPhoto.getString(FLICKR_SERVERID_FIELD);
-                        String farmId = jsonPhoto.getString(FLICKR_FARMID_FIELD);
-                        Contact owner = photoCollection.getContact(jsonPhoto.getString(FLICKR_OWNER_FIELD));
-                        String dateTakenString = jsonPhoto.getString(FLICKR_DATETAKEN_FIELD);
-                        Date dateTaken = DATE_FORMAT.parse(dateTakenString);
-                        String title = jsonPhoto.getString(FLICKR_TITLE_FIELD);
-                        // blank title if it looks like a filename
-                        if (Pattern.matches(NO_SPACES, title) && Pattern.matches(HAS_NUMBERS, title) && Pattern.matches(HAS_DELIMETERS, title)) {
-                            title = "";
-                        }
+    /**
+     * decodes one page of a photo listing, a contact's or the recent photos of all contacts.
+     *
+     * the page is decoded straight from the response stream on the network thread. only the
+     * decoded photos are handed to the ingest thread.
+     */
+    class PhotosResponseHandler extends ScheduledStreamResponseHandler {
+        private PhotosPageDecoder.ContactLookup contactLookup;
+        /** what's being listed, for the log */
+        private String listing;
+        private volatile PhotosPageDecoder.PhotosPage decodedPage;
+        final FlickrFuture<PhotosPageDecoder.PhotosPage> future = new FlickrFuture<>();
 
-                        // Log.d("FlickrClient", "got photo" + jsonPhoto);
-                        String woeId = null;
-                        if (jsonPhoto.has(FLICKR_WOEID_FIELD)) {
-                            woeId = jsonPhoto.getString(FLICKR_WOEID_FIELD);
-                        // } else {
-                        //     Log.w("FlickrClient", "photo missing woeid: " + jsonPhoto.getString(FLICKR_OWNER_FIELD) +  " " + id);
-                        }
-                        Photo photo = new Photo(id, secret, serverId, farmId, owner, title, dateTaken, woeId);
-                        photoCollection.addPhoto(photo);
-                    }
-                }
-            } catch (JSONException | ParseException | NoSuchElementException e) {
-                Log.e("FlickrClient", "getContactsPhotos: ", e);
+        public PhotosResponseHandler(final PhotosPageDecoder.ContactLookup contactLookup, final String listing) {
+            this.contactLookup = contactLookup;
+            this.listing = listing;
+        }
+
+        @Override
+        public void onStart() {
+            Log.i("FlickrClient", "photos request started for " + listing);
+        }
+
+        @Override
+        public String getLabel() {
+            return listing;
+        }
+
+        /**
+         * called on the network thread in place of buffering the whole body. the body is read
+         * to the end or discarded either way, so the connection can be reused.
+         */
+        @Override
+        public void sendResponseMessage(HttpResponse response) throws IOException {
+            if (Thread.currentThread().isInterrupted() || future.isCancelled()) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return;
+            }
+            StatusLine status = response.getStatusLine();
+            if (status.getStatusCode() >= 300) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                sendFailureMessage(status.getStatusCode(), response.getAllHeaders(), null,
+                                   new HttpResponseException(status.getStatusCode(), status.getReasonPhrase()));
+                return;
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                sendFailureMessage(status.getStatusCode(), response.getAllHeaders(), null,
+                                   new IOException("empty photos response"));
+                return;
+            }
+            InputStream in = entity.getContent();
+            long start = System.nanoTime();
+            try {
+                decodedPage = new PhotosPageDecoder(contactLookup).decode(in);
+                recordPageDecoded(System.nanoTime() - start);
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                sendFailureMessage(status.getStatusCode(), response.getAllHeaders(), null, e);
+                return;
+            } finally {
+                in.close();
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                sendSuccessMessage(status.getStatusCode(), response.getAllHeaders(), null);
             }
-            photoCollection.markContactRequestComplete();
         }
 
         @Override
-        public void onFailure(int statusCode, Header[] headers, Throwable err, JSONObject json) {
-            Log.e("FlickrClient", "fail: " + err);
-            photoCollection.markContactRequestComplete();
+        public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
+            final PhotosPageDecoder.PhotosPage photosPage = decodedPage;
+            if (!photosPage.ok) {
+                Log.e("FlickrClient", "flickr error listing photos for " + listing);
+                deliverFailure(future, new IOException("flickr error listing photos for " + listing));
+                return;
+            }
+            Log.d("FlickrClient", "got " + photosPage.photos.size() + " photos for " + listing
+                  + " of " + photosPage.numPages + ", skipped " + photosPage.numSkipped);
+            ingest(new Runnable() {
+                    public void run() {
+                        future.complete(photosPage);
+                        metrics.photosIngested(photosPage.photos.size());
+                    }
+                });
         }
 
-        // workaround for a bug in android-async-http.
-        // https://github.com/loopj/android-async-http/issues/91
         @Override
-        public void onFailure(int statusCode, Header[] headers, Throwable err, JSONArray errorResponse) {
-            Log.e("FlickrClient", "failure triggered wrong callback. fail: " + err);
-            photoCollection.markContactRequestComplete();
+        public void onError(int statusCode, Throwable err) {
+            Log.e("FlickrClient", "fail: " + err);
+            deliverFailure(future, err);
         }
     }
 
-    class PlaceResponseHandler extends JsonHttpResponseHandler {
-        private Photo photo;
+    class PlaceResponseHandler extends ScheduledResponseHandler {
+        private String woeId;
 
-        public PlaceResponseHandler(final Photo photo) {
-            this.photo = photo;
+        public PlaceResponseHandler(final String woeId) {
+            this.woeId = woeId;
+        }
+
+        @Override
+        public String getLabel() {
+            return "woeid " + woeId;
         }
 
         // @Override
@@ -349,29 +1211,23 @@ public class FlickrClient extends OAuthBaseClient {
 
         @Override
         public void onSuccess(int statusCode, Header[] headers, JSONObject json) {
+            String location = null;
             try {
                 // Log.d("FlickrClient", "got place obj: " + json);
                 if (json.has(FLICKR_PLACE_FIELD) && !json.getJSONObject(FLICKR_PLACE_FIELD).isNull(FLICKR_WOE_NAME_FIELD)) {
-                    String location = json.getJSONObject(FLICKR_PLACE_FIELD).getString(FLICKR_WOE_NAME_FIELD);
+                    location = json.getJSONObject(FLICKR_PLACE_FIELD).getString(FLICKR_WOE_NAME_FIELD);
                     Log.i("FlickrClient", "got place: " + location);
-                    placesCache.put(photo.getWoeId(), location);
-                    photo.setLocation(location);
                 }
             } catch (JSONException | NoSuchElementException e) {
                 Log.e("FlickrClient", "getContactsPhotos: ", e);
             }
+            placeLookups.complete(woeId, location);
         }
 
         @Override
-        public void onFailure(int statusCode, Header[] headers, Throwable err, JSONObject json) {
+        public void onError(int statusCode, Throwable err) {
             Log.e("FlickrClient", "fail: " + err);
-        }
-
-        // workaround for a bug in android-async-http.
-        // https://github.com/loopj/android-async-http/issues/91
-        @Override
-        public void onFailure(int statusCode, Header[] headers, Throwable err, JSONArray errorResponse) {
-            Log.e("FlickrClient", "failure triggered wrong callback. fail: " + err);
+            placeLookups.complete(woeId, null);
         }
     }
 }
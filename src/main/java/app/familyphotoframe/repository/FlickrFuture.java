@@ -0,0 +1,212 @@
+package app.familyphotoframe.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * the result of a flickr request that may not have arrived yet.
+ *
+ * callbacks run on the thread that completes the future, which for FlickrClient is its ingest
+ * thread, or right away if the future is already done. cancelling aborts the request, whether
+ * it's still queued, in flight or waiting to be retried, and a cancelled future never calls
+ * back.
+ */
+public class FlickrFuture<T> implements Future<T> {
+
+    /**
+     * receives the outcome of a request
+     */
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Throwable err);
+    }
+
+    private enum State {
+        PENDING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    private State state = State.PENDING;
+    private T result;
+    private Throwable error;
+    private List<Callback<? super T>> callbacks = new ArrayList<>();
+    private Runnable canceller;
+
+    /**
+     * @return a future that has already succeeded, for answers that don't need a request
+     */
+    public static <T> FlickrFuture<T> completed(final T result) {
+        FlickrFuture<T> future = new FlickrFuture<>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * @param callback called once with the outcome, unless the future is cancelled first
+     */
+    public void addCallback(final Callback<? super T> callback) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        deliver(callback);
+    }
+
+    /**
+     * @return false if the future was already done
+     */
+    boolean complete(final T result) {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            this.result = result;
+            state = State.SUCCEEDED;
+        }
+        finish();
+        return true;
+    }
+
+    /**
+     * @return false if the future was already done
+     */
+    boolean fail(final Throwable err) {
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            error = err;
+            state = State.FAILED;
+        }
+        finish();
+        return true;
+    }
+
+    /**
+     * @param canceller aborts the work behind this future. run at most once, and right away if
+     *        the future was already cancelled.
+     */
+    void setCanceller(final Runnable canceller) {
+        synchronized (this) {
+            if (state == State.PENDING) {
+                this.canceller = canceller;
+                return;
+            }
+            if (state != State.CANCELLED) {
+                return;
+            }
+        }
+        canceller.run();
+    }
+
+    /**
+     * drop the callbacks and abort the request. the request isn't interrupted mid-callback,
+     * mayInterruptIfRunning is ignored.
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        Runnable cancellerToRun;
+        synchronized (this) {
+            if (state != State.PENDING) {
+                return false;
+            }
+            state = State.CANCELLED;
+            callbacks = null;
+            cancellerToRun = canceller;
+            canceller = null;
+            notifyAll();
+        }
+        if (cancellerToRun != null) {
+            cancellerToRun.run();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state != State.PENDING;
+    }
+
+    /**
+     * block until the request is done. never call this on the thread that completes futures.
+     */
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (state == State.PENDING) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (state == State.PENDING) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+        }
+        return getResult();
+    }
+
+    /**
+     * only called while holding the lock, once the future is done
+     */
+    private T getResult() throws ExecutionException {
+        switch (state) {
+        case SUCCEEDED:
+            return result;
+        case FAILED:
+            throw new ExecutionException(error);
+        default:
+            throw new CancellationException();
+        }
+    }
+
+    private void finish() {
+        List<Callback<? super T>> toNotify;
+        synchronized (this) {
+            notifyAll();
+            toNotify = callbacks;
+            callbacks = null;
+            canceller = null;
+        }
+        for (Callback<? super T> callback : toNotify) {
+            deliver(callback);
+        }
+    }
+
+    private void deliver(final Callback<? super T> callback) {
+        State stateToSend;
+        T resultToSend;
+        Throwable errorToSend;
+        synchronized (this) {
+            stateToSend = state;
+            resultToSend = result;
+            errorToSend = error;
+        }
+        if (stateToSend == State.SUCCEEDED) {
+            callback.onSuccess(resultToSend);
+        } else if (stateToSend == State.FAILED) {
+            callback.onFailure(errorToSend);
+        }
+    }
+}
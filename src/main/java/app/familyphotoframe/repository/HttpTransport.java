@@ -0,0 +1,214 @@
+package app.familyphotoframe.repository;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import android.util.Log;
+
+import com.loopj.android.http.AsyncHttpClient;
+import cz.msebera.android.httpclient.HttpConnection;
+import cz.msebera.android.httpclient.HttpEntity;
+import cz.msebera.android.httpclient.HttpRequest;
+import cz.msebera.android.httpclient.HttpRequestInterceptor;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.HttpResponseInterceptor;
+import cz.msebera.android.httpclient.entity.HttpEntityWrapper;
+import cz.msebera.android.httpclient.impl.client.DefaultConnectionKeepAliveStrategy;
+import cz.msebera.android.httpclient.impl.client.DefaultHttpClient;
+import cz.msebera.android.httpclient.protocol.ExecutionContext;
+import cz.msebera.android.httpclient.protocol.HttpContext;
+
+/**
+ * tunes the http client for many small requests to one host, and counts what goes over the
+ * wire.
+ *
+ * connections are kept alive between requests and reused, for up to keepAliveMs idle unless the
+ * server asks for less. responses are requested gzipped. the counters show how many requests
+ * went out on a reused connection, and response body bytes before and after decompression.
+ */
+public class HttpTransport {
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+    private static final String GZIP_ENCODING = "gzip";
+
+    private final int maxConnections;
+    private final int connectTimeoutMs;
+    private final int responseTimeoutMs;
+    private final long keepAliveMs;
+
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numReusedConnections = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    /**
+     * each response's entity as it came off the wire, so its bytes can be looked up once it's
+     * been read. the client wraps the entity again after the interceptors run, so this can't be
+     * found from the response itself.
+     */
+    private final Map<HttpResponse,CountingEntity> wireEntities =
+        Collections.synchronizedMap(new WeakHashMap<HttpResponse,CountingEntity>());
+
+    /**
+     * ctor
+     *
+     * @param maxConnections max pooled connections to one host
+     * @param connectTimeoutMs how long to wait for a connection
+     * @param responseTimeoutMs how long to wait for data once connected
+     * @param keepAliveMs how long an idle connection is kept for reuse
+     */
+    public HttpTransport(final int maxConnections, final int connectTimeoutMs, final int responseTimeoutMs,
+                         final long keepAliveMs) {
+        this.maxConnections = maxConnections;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.responseTimeoutMs = responseTimeoutMs;
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    /**
+     * apply the settings to loopj's client
+     */
+    public void install(final AsyncHttpClient client) {
+        client.setMaxConnections(maxConnections);
+        client.setConnectTimeout(connectTimeoutMs);
+        client.setResponseTimeout(responseTimeoutMs);
+        install((DefaultHttpClient) client.getHttpClient());
+    }
+
+    /**
+     * add keep alive and the counters to an http client. it's expected to already decompress
+     * responses with a response interceptor, like loopj's does.
+     */
+    public void install(final DefaultHttpClient httpClient) {
+        httpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+                @Override
+                public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+                    long serverMs = super.getKeepAliveDuration(response, context);
+                    return serverMs > 0 ? Math.min(serverMs, keepAliveMs) : keepAliveMs;
+                }
+            });
+
+        // first, so the decompressing interceptor sees the header is already there
+        httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
+                public void process(final HttpRequest request, final HttpContext context) {
+                    if (!request.containsHeader(ACCEPT_ENCODING_HEADER)) {
+                        request.addHeader(ACCEPT_ENCODING_HEADER, GZIP_ENCODING);
+                    }
+                    numRequests.incrementAndGet();
+                    // the connection's metrics count the requests it has already sent
+                    Object connection = context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+                    if (connection instanceof HttpConnection
+                        && ((HttpConnection) connection).getMetrics().getRequestCount() > 0) {
+                        numReusedConnections.incrementAndGet();
+                    }
+                }
+            }, 0);
+
+        // before decompression
+        httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+                public void process(final HttpResponse response, final HttpContext context) {
+                    if (response.getEntity() != null) {
+                        CountingEntity wireEntity = new CountingEntity(response.getEntity(), wireBytes);
+                        response.setEntity(wireEntity);
+                        wireEntities.put(response, wireEntity);
+                    }
+                }
+            }, 0);
+
+        // after decompression
+        httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+                public void process(final HttpResponse response, final HttpContext context) {
+                    if (response.getEntity() != null) {
+                        response.setEntity(new CountingEntity(response.getEntity(), decodedBytes));
+                    }
+                }
+            });
+    }
+
+    public long getNumRequests() {
+        return numRequests.get();
+    }
+
+    public long getNumReusedConnections() {
+        return numReusedConnections.get();
+    }
+
+    /**
+     * @return response body bytes as they arrived, compressed or not
+     */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    /**
+     * @return response body bytes after decompression
+     */
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    /**
+     * @return bytes of the response's body read off the wire so far, or -1 if it has no body or
+     *         didn't come through a client this was installed on
+     */
+    public long getWireBytes(final HttpResponse response) {
+        CountingEntity entity = wireEntities.get(response);
+        return entity == null ? -1 : entity.count.get();
+    }
+
+    public void dumpToLog() {
+        Log.i("HttpTransport", "requests: " + numRequests.get() + ", on reused connections: " + numReusedConnections.get());
+        Log.i("HttpTransport", "response bytes on the wire: " + wireBytes.get() + ", decompressed: " + decodedBytes.get());
+    }
+
+    /**
+     * counts the bytes read from the entity's content, for this response and into a total
+     */
+    private static class CountingEntity extends HttpEntityWrapper {
+        private final AtomicLong total;
+        private final AtomicLong count = new AtomicLong();
+
+        public CountingEntity(final HttpEntity wrapped, final AtomicLong total) {
+            super(wrapped);
+            this.total = total;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int value = super.read();
+                    if (value >= 0) {
+                        add(1);
+                    }
+                    return value;
+                }
+
+                @Override
+                public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+                    int count = super.read(buffer, offset, length);
+                    if (count > 0) {
+                        add(count);
+                    }
+                    return count;
+                }
+
+                @Override
+                public long skip(final long count) throws IOException {
+                    long skipped = super.skip(count);
+                    add(skipped);
+                    return skipped;
+                }
+            };
+        }
+
+        private void add(final long numBytes) {
+            count.addAndGet(numBytes);
+            total.addAndGet(numBytes);
+        }
+    }
+}
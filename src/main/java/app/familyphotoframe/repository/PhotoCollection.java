@@ -4,171 +4,1000 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.NoSuchElementException;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import android.util.Log;
-import android.widget.Toast;
 
 import app.familyphotoframe.PhotoFrameActivity;
 import app.familyphotoframe.slideshow.Display;
+import app.familyphotoframe.slideshow.ShowPlanner;
 import app.familyphotoframe.model.Contact;
 import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
 import app.familyphotoframe.exception.DiscoveryFailureException;
-import app.familyphotoframe.R;
 
 /**
- * holds all of the photos of the logged in user as well as their contacts shared photos
+ * holds all of the photos of the logged in users as well as their contacts shared photos.
+ *
+ * each flickr account runs its own discovery pipeline, on its own client and request budget,
+ * and they all feed this one collection. photos and contacts are merged by id, and a contact
+ * listed by several accounts has its photos fetched once, by whichever account listed it first.
+ *
+ * with a checkpoint, the collection and the progress of an unfinished discovery are saved as
+ * photos arrive. after a restart the saved photos are shown right away, and discovery skips the
+ * contacts and photo pages it already has.
  */
-public class PhotoCollection {
+public class PhotoCollection implements PhotosPageDecoder.ContactLookup {
     /** start slideshow after getting photos from a few contacts */
     private static final int MIN_CONTACTS_TO_START = 3;
 
+    /**
+     * photo pages fetched per contact for each point of the planner's relationship likelihood.
+     * listings are newest first, so this caps how far back we go for contacts whose photos are
+     * rarely shown.
+     */
+    private static final int PHOTO_PAGES_PER_LIKELIHOOD = 2;
+
+    /** contacts whose photos are shown more often are fetched first */
+    private static final Comparator<Contact> MOST_SHOWN_FIRST = new Comparator<Contact>() {
+            @Override
+            public int compare(final Contact a, final Contact b) {
+                return ShowPlanner.getRelationshipLikelihood(b.getRelationship())
+                    - ShowPlanner.getRelationshipLikelihood(a.getRelationship());
+            }
+        };
+
+    /** re-fetch everything this often so deleted and edited photos are picked up */
+    private static final long FULL_SYNC_INTERVAL_MS = TimeUnit.DAYS.toMillis(7);
+
+    /** delta syncs also ask for photos uploaded a little before the last sync, to allow for clock skew */
+    private static final long SYNC_OVERLAP_SECS = TimeUnit.DAYS.toSeconds(1);
+
+    /** an unfinished discovery is picked up where it stopped if it started less than this long ago */
+    private static final long RESUME_WINDOW_MS = TimeUnit.DAYS.toMillis(1);
+
     /** activity with the slideshow */
     private PhotoFrameActivity photoFrameActivity;
 
-    /** provides access to flickr data */
-    private FlickrClient flickr;
+    /** provides access to flickr data, one client per logged in account */
+    private List<FlickrClient> accounts;
 
-    /** all photos we know about */
-    private Set<Photo> photos;
+    /** ids of all photos we know about, to tell which ones are new. only used while holding the lock. */
+    private PhotoIdSet photoIds;
 
-    /** all flickr relations */
-    private Set<Contact> contacts;
+    /**
+     * the same photos as readers see them. it's replaced, never changed, so readers don't lock
+     * and always get a consistent set.
+     */
+    private final AtomicReference<PhotoGeneration> generation;
+
+    /** all flickr relations, by userId and ordinal */
+    private ContactRegistry contacts;
+
+    /** count of photos we have of each contact, indexed by the contact's ordinal */
+    private int[] photoCountByOwner;
+
+    /** count of contacts we have at least one photo of */
+    private int numContributors;
+
+    /**
+     * flickr requests of the current discovery. they're cancelled together, and a response only
+     * counts while its request is still in here.
+     */
+    private Set<FlickrFuture<?>> requestsInFlight;
 
     /** count of async contact requests in progress */
     private int contactRequestsInProgress;
 
+    /**
+     * count of accounts whose contact list is still coming in. an account is done once the
+     * last page of its list has arrived, or the rest of it failed.
+     */
+    private int contactListsInProgress;
+
+    /** count of accounts whose profile couldn't be fetched in the current discovery */
+    private int numProfilesFailed;
+
+    /** true if some contact list pages or profiles failed, so we only know part of the contacts */
+    private boolean contactListPartial;
+
+    /** photos listed during the current full sync, so ones that are gone can be dropped after */
+    private PhotoIdSet photosSeenInSync;
+
+    /** ordinals of contacts whose photos have been requested during the current discovery */
+    private BitSet contactsInCurrentSync;
+
+    /** ordinals of contacts listed by some account, as its profile or in its contact list, during the current discovery */
+    private BitSet contactsListedInSync;
+
+    /** unix time (secs) when each contact's last complete photo fetch started, keyed by userId */
+    private Map<String,Long> lastSyncByContact;
+
+    /** unix time (secs) when each in-progress contact request started, keyed by userId */
+    private Map<String,Long> syncStartByContact;
+
+    /** userIds of contacts whose photos have all been fetched by the unfinished discovery */
+    private Set<String> contactsDoneInSync;
+
+    /** photo pages fetched so far of each in-progress contact request, keyed by userId */
+    private Map<String,Integer> pagesDoneByContact;
+
+    /** start time of the discovery that hasn't finished yet, or null if the last one finished */
+    private Date timeOfSyncStart;
+
     /** completion time of last discovery request */
-    private Date timeOfLastDiscovery;
+    private volatile Date timeOfLastDiscovery;
+
+    /** completion time of last discovery that re-fetched everything */
+    private Date timeOfLastFullSync;
+
+    /** true if the discovery in progress started from an empty collection */
+    private boolean fullSyncInProgress;
 
     /** indicates discovery is in progress */
     private boolean discoveryInProgress;
 
     /** if true, we couldn't contact flickr */
-    private boolean discoveryFailed;
+    private volatile boolean discoveryFailed;
+
+    /** where the collection and discovery progress are saved, or null to not save them */
+    private final DiscoveryCheckpoint checkpoint;
+
+    /** true once the checkpoint has been taken up, or there's no longer anything to take up */
+    private boolean checkpointRestored;
 
-    public PhotoCollection(final PhotoFrameActivity photoFrameActivity, final FlickrClient flickr) {
+    /** true while the checkpoint is being read on its own thread */
+    private boolean restoringCheckpoint;
+
+    /** true if discovery was asked for while the checkpoint was being read */
+    private boolean startAfterRestore;
+
+    /** true if the checkpoint had photos the show can start with before any request returns */
+    private boolean startFromCheckpoint;
+
+    /**
+     * resolves owners in the recent photos of all contacts, which usually arrive before the
+     * contact list does
+     */
+    private final PhotosPageDecoder.OwnerLookup recentPhotosOwnerLookup = new PhotosPageDecoder.OwnerLookup() {
+            public Contact getContact(final String userId) {
+                return PhotoCollection.this.getContact(userId);
+            }
+            public Contact getOrAddContact(final String userId, final String userName) {
+                return getOrAddProvisionalContact(userId, userName);
+            }
+        };
+
+    public PhotoCollection(final PhotoFrameActivity photoFrameActivity, final FlickrClient flickr,
+                           final DiscoveryCheckpoint checkpoint) {
+        this(photoFrameActivity, Collections.singletonList(flickr), checkpoint);
+    }
+
+    public PhotoCollection(final PhotoFrameActivity photoFrameActivity, final List<FlickrClient> accounts) {
+        this(photoFrameActivity, accounts, null);
+    }
+
+    /**
+     * @param accounts a client for each logged in account. clients keep their cached responses
+     *        by account, so each needs an account of its own.
+     * @param checkpoint where to save progress, or null
+     */
+    public PhotoCollection(final PhotoFrameActivity photoFrameActivity, final List<FlickrClient> accounts,
+                           final DiscoveryCheckpoint checkpoint) {
+        Set<String> accountNames = new HashSet<>();
+        for (FlickrClient account : accounts) {
+            if (!accountNames.add(account.getAccount())) {
+                throw new IllegalArgumentException("two clients for account '" + account.getAccount() + "'");
+            }
+        }
         this.photoFrameActivity = photoFrameActivity;
-        this.flickr = flickr;
-        contacts = new HashSet<>();
-        photos = new HashSet<>();
+        this.accounts = new ArrayList<>(accounts);
+        this.checkpoint = checkpoint;
+        contacts = new ContactRegistry();
+        photoCountByOwner = new int[0];
+        numContributors = 0;
+        photoIds = new PhotoIdSet();
+        generation = new AtomicReference<>(new PhotoGeneration(0, Collections.<Photo>emptyList()));
+        requestsInFlight = new HashSet<>();
         contactRequestsInProgress = 0;
+        contactListsInProgress = 0;
+        contactsInCurrentSync = new BitSet();
+        contactsListedInSync = new BitSet();
+        lastSyncByContact = new HashMap<>();
+        syncStartByContact = new HashMap<>();
+        contactsDoneInSync = new HashSet<>();
+        pagesDoneByContact = new HashMap<>();
         timeOfLastDiscovery = null;
+        timeOfLastFullSync = null;
+        timeOfSyncStart = null;
         discoveryInProgress = false;
+        if (checkpoint != null) {
+            checkpoint.setSource(new DiscoveryCheckpoint.Source() {
+                    public DiscoveryCheckpoint.State snapshot() {
+                        return makeCheckpoint();
+                    }
+                });
+        }
     }
 
+    /**
+     * start syncing with flickr. a discovery that's still running, or was stopped not long ago,
+     * carries on from where it got to. contacts it has finished aren't fetched again.
+     */
     public synchronized void startDiscovery() {
-        if (discoveryInProgress) {
-            Log.i("PhotoCollection", "discovery already in progress, not restarting");
+        if (checkpoint != null && !checkpointRestored) {
+            // callers are usually on the ui thread, so the checkpoint is read and taken up on
+            // its own thread, and discovery starts from there
+            startAfterRestore = true;
+            if (!restoringCheckpoint) {
+                restoringCheckpoint = true;
+                checkpoint.load(new DiscoveryCheckpoint.LoadListener() {
+                        public void onLoaded(final DiscoveryCheckpoint.State state) {
+                            restoreCheckpointAndStart(state);
+                        }
+                    });
+            }
             return;
         }
-        Log.i("PhotoCollection", "starting discovery");
+        cancelDiscovery();
+        boolean resuming = timeOfSyncStart != null && new Date().getTime() - timeOfSyncStart.getTime() < RESUME_WINDOW_MS;
+        if (!resuming) {
+            fullSyncInProgress = isFullSyncDue();
+            timeOfSyncStart = new Date();
+            contactsDoneInSync.clear();
+            pagesDoneByContact.clear();
+            syncStartByContact.clear();
+            if (fullSyncInProgress) {
+                // keep showing what we have. photos are replaced contact by contact as each one's
+                // full listing succeeds, so a failure doesn't lose anything.
+                lastSyncByContact.clear();
+                photosSeenInSync = new PhotoIdSet();
+            } else {
+                photosSeenInSync = null;
+            }
+        }
+        Log.i("PhotoCollection", (resuming ? "resuming " : "starting ") + (fullSyncInProgress ? "full" : "delta")
+              + " discovery of " + accounts.size() + " accounts, " + contactsDoneInSync.size() + " contacts already done");
         discoveryInProgress = true;
         discoveryFailed = false;
-        flickr.lookupProfile(this);
-        contacts.clear();
-        photos.clear();
+        contactListsInProgress = accounts.size();
+        numProfilesFailed = 0;
+        contactListPartial = false;
+        contactsInCurrentSync.clear();
+        contactsListedInSync.clear();
+        // profile and contacts rarely change. a delta sync can use cached copies, a full sync
+        // checks with flickr.
+        final boolean forceRefresh = fullSyncInProgress;
+        for (final FlickrClient account : accounts) {
+            account.discoveryStarted();
+            track(account.lookupProfile(forceRefresh), new FlickrFuture.Callback<Contact>() {
+                    public void onSuccess(final Contact self) {
+                        addProfileAndContinueDiscovery(account, self, forceRefresh);
+                    }
+                    public void onFailure(final Throwable err) {
+                        reportProfileFailure();
+                    }
+                });
+        }
+        if (startFromCheckpoint) {
+            // the saved photos may be enough for the show, no need to wait for flickr
+            startFromCheckpoint = false;
+            checkDiscoveryProgress();
+        }
     }
 
-    public Contact getContact(final String userId) {
-        for (Contact contact : contacts) {
-            if (contact.getUserId().equals(userId)) {
-                return contact;
+    /**
+     * abort the discovery in progress, e.g. when the user logs out or the frame goes to sleep.
+     * responses already on their way are ignored. photos that have arrived are kept, along with
+     * how far discovery got, so the next one can resume.
+     */
+    public synchronized void cancelDiscovery() {
+        startAfterRestore = false;
+        if (requestsInFlight.isEmpty()) {
+            return;
+        }
+        Log.i("PhotoCollection", "cancelling discovery, " + requestsInFlight.size() + " requests in flight");
+        List<FlickrFuture<?>> toCancel = new ArrayList<>(requestsInFlight);
+        requestsInFlight.clear();
+        for (FlickrFuture<?> future : toCancel) {
+            future.cancel(true);
+        }
+        discoveryInProgress = false;
+        // timeOfLastFullSync isn't touched, so a cancelled full sync is still due
+        contactRequestsInProgress = 0;
+        contactListsInProgress = 0;
+        if (checkpoint != null) {
+            checkpoint.saveNow();
+        }
+    }
+
+    /**
+     * forget the saved collection, e.g. when the user logs out
+     */
+    public synchronized void clearCheckpoint() {
+        timeOfSyncStart = null;
+        // a checkpoint that's still being read is dropped when it comes in
+        checkpointRestored = true;
+        if (checkpoint != null) {
+            checkpoint.clear();
+        }
+    }
+
+    /**
+     * the checkpoint has been read. called on the checkpoint's thread.
+     *
+     * @param state what was saved, or null if there's nothing usable
+     */
+    private synchronized void restoreCheckpointAndStart(final DiscoveryCheckpoint.State state) {
+        restoringCheckpoint = false;
+        if (!checkpointRestored) {
+            checkpointRestored = true;
+            if (state != null) {
+                restoreCheckpoint(state);
             }
         }
-        throw new NoSuchElementException("userId not found: " + userId + " " + contacts);
+        if (startAfterRestore) {
+            startAfterRestore = false;
+            startDiscovery();
+        }
     }
 
-    public void addProfileAndContinueDiscovery(Contact newContact) {
-        contacts.add(newContact);
-        flickr.lookupContacts(this);
-        Log.i("PhotoCollection", "added profile: " + newContact);
+    /**
+     * take up the collection and discovery progress saved by an earlier run. only called by
+     * synchronized methods, before the first discovery.
+     */
+    private void restoreCheckpoint(final DiscoveryCheckpoint.State state) {
+        for (Contact contact : state.contacts) {
+            contacts.add(contact);
+        }
+        addPhotos(state.photos);
+        lastSyncByContact.putAll(state.lastSyncByContact);
+        timeOfLastFullSync = state.timeOfLastFullSync == 0 ? null : new Date(state.timeOfLastFullSync);
+        if (state.timeOfSyncStart != 0) {
+            timeOfSyncStart = new Date(state.timeOfSyncStart);
+            fullSyncInProgress = state.fullSyncInProgress;
+            contactsDoneInSync.addAll(state.contactsDoneInSync);
+            syncStartByContact.putAll(state.syncStartByContact);
+            pagesDoneByContact.putAll(state.pagesDoneByContact);
+            if (fullSyncInProgress) {
+                photosSeenInSync = new PhotoIdSet();
+                for (String id : state.photoIdsSeenInSync) {
+                    if (photoIds.contains(id)) {
+                        photosSeenInSync.add(id);
+                    }
+                }
+            }
+        }
+        startFromCheckpoint = photoIds.size() > 0;
+        Log.i("PhotoCollection", "restored " + photoIds.size() + " photos of " + contacts.size() + " contacts, "
+              + contactsDoneInSync.size() + " contacts done in the unfinished discovery");
     }
 
-    public synchronized void addContactsAndContinueDiscovery(final Set<Contact> newContacts) {
-        contacts.addAll(newContacts);
+    /**
+     * @return a copy of what the checkpoint saves. the photos are a view of the current
+     *         generation, not a copy.
+     */
+    private synchronized DiscoveryCheckpoint.State makeCheckpoint() {
+        DiscoveryCheckpoint.State state = new DiscoveryCheckpoint.State();
+        state.contacts.addAll(contacts.getAll());
+        // the generation doesn't change, so its photos can be read after we let go of the lock
+        state.photos = generation.get().getPhotos();
+        state.lastSyncByContact.putAll(lastSyncByContact);
+        state.timeOfLastFullSync = timeOfLastFullSync == null ? 0 : timeOfLastFullSync.getTime();
+        if (timeOfSyncStart != null) {
+            state.timeOfSyncStart = timeOfSyncStart.getTime();
+            state.fullSyncInProgress = fullSyncInProgress;
+            state.contactsDoneInSync.addAll(contactsDoneInSync);
+            state.syncStartByContact.putAll(syncStartByContact);
+            state.pagesDoneByContact.putAll(pagesDoneByContact);
+            if (photosSeenInSync != null) {
+                photosSeenInSync.addAllTo(state.photoIdsSeenInSync);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * only called by synchronized methods
+     */
+    private void saveCheckpointSoon() {
+        if (checkpoint != null) {
+            checkpoint.saveSoon();
+        }
+    }
+
+    /**
+     * remember the request as part of this discovery, and only pass its outcome on if it's
+     * still wanted by then. only called by synchronized methods.
+     */
+    private <T> void track(final FlickrFuture<T> future, final FlickrFuture.Callback<T> callback) {
+        requestsInFlight.add(future);
+        future.addCallback(new FlickrFuture.Callback<T>() {
+                public void onSuccess(final T result) {
+                    synchronized (PhotoCollection.this) {
+                        if (requestsInFlight.remove(future)) {
+                            callback.onSuccess(result);
+                        }
+                    }
+                }
+                public void onFailure(final Throwable err) {
+                    synchronized (PhotoCollection.this) {
+                        if (requestsInFlight.remove(future)) {
+                            callback.onFailure(err);
+                        }
+                    }
+                }
+            });
+    }
+
+    /**
+     * a delta sync only asks for photos uploaded since each contact's last sync. that can't see
+     * deleted or edited photos, so every so often we start over.
+     */
+    private boolean isFullSyncDue() {
+        return timeOfLastFullSync == null || photoIds.size() == 0
+            || new Date().getTime() - timeOfLastFullSync.getTime() > FULL_SYNC_INTERVAL_MS;
+    }
+
+    /**
+     * called by the network threads for each photo they decode, so it doesn't lock the collection
+     */
+    @Override
+    public Contact getContact(final String userId) {
+        Contact contact = contacts.get(userId);
+        if (contact == null) {
+            throw new NoSuchElementException("userId not found: " + userId);
+        }
+        return contact;
+    }
+
+    /**
+     * @param account the account the profile belongs to
+     * @param forceRefresh passed on to the contacts lookup
+     */
+    private synchronized void addProfileAndContinueDiscovery(final FlickrClient account, final Contact newContact,
+                                                             final boolean forceRefresh) {
+        Contact self = mergeContact(newContact);
+        Log.i("PhotoCollection", "added profile: " + self);
+        if (photoIds.size() == 0) {
+            requestRecentPhotos(account);
+        }
+        requestContacts(account, forceRefresh, 1);
+        startContactRequest(account, self);
+    }
+
+    /**
+     * an account's profile couldn't be fetched, so it can't list anything. discovery carries on
+     * with the other accounts, and only fails if none of them got started.
+     */
+    private synchronized void reportProfileFailure() {
+        numProfilesFailed++;
+        if (numProfilesFailed == accounts.size()) {
+            reportDiscoveryFailure();
+            return;
+        }
+        Log.w("PhotoCollection", "profile lookup failed for " + numProfilesFailed + " of " + accounts.size() + " accounts");
+        contactListsInProgress--;
+        contactListPartial = true;
+        checkDiscoveryProgress();
+    }
+
+    /**
+     * add a contact listed by an account, or update the one we already have. photos hold the
+     * existing object, so it's updated in place. the first listing in a discovery is taken as
+     * is, so changes since the last sync are picked up. later listings by other accounts can
+     * only make the contact more shown, e.g. family of one account and a friend of another.
+     * only called by synchronized methods.
+     *
+     * @return the contact held by the collection
+     */
+    private Contact mergeContact(final Contact contact) {
+        Contact existing = contacts.add(contact);
+        boolean firstListing = !contactsListedInSync.get(existing.getOrdinal());
+        contactsListedInSync.set(existing.getOrdinal());
+        if (existing == contact) {
+            return contact;
+        }
+        if (firstListing
+            || ShowPlanner.getRelationshipLikelihood(contact.getRelationship())
+               > ShowPlanner.getRelationshipLikelihood(existing.getRelationship())) {
+            existing.setName(contact.getName());
+            existing.setRelationship(contact.getRelationship());
+        }
+        return existing;
+    }
+
+    /**
+     * fast start for an empty collection: one request for the latest photos of every contact,
+     * which is usually enough to start the show. the contact list and per-contact listings
+     * carry on regardless and fill in the rest. only called by synchronized methods.
+     */
+    private void requestRecentPhotos(final FlickrClient account) {
+        track(account.lookupRecentContactsPhotos(recentPhotosOwnerLookup), new FlickrFuture.Callback<PhotosPageDecoder.PhotosPage>() {
+                public void onSuccess(final PhotosPageDecoder.PhotosPage photosPage) {
+                    Log.i("PhotoCollection", "got " + photosPage.photos.size() + " recent photos of all contacts");
+                    addPhotos(photosPage.photos);
+                    saveCheckpointSoon();
+                    // only to start early, finishing discovery is up to the listings
+                    if (discoveryInProgress) {
+                        checkDiscoveryProgress();
+                    }
+                }
+                public void onFailure(final Throwable err) {
+                    Log.w("PhotoCollection", "no fast start, waiting for the per-contact listings: " + err);
+                }
+            });
+    }
+
+    /**
+     * a photo owner from the recent photos, which may arrive before the contact list. until the
+     * list names them properly, new owners count as friends, since the planner never shows
+     * photos of strangers. the list updates the contact in place.
+     */
+    private Contact getOrAddProvisionalContact(final String userId, final String userName) {
+        Contact contact = contacts.get(userId);
+        if (contact != null) {
+            return contact;
+        }
+        return contacts.add(new Contact(userId, userName, Relationship.FRIEND));
+    }
+
+    /**
+     * request a page of the contact list. the next page is requested as each one arrives. only
+     * called by synchronized methods.
+     */
+    private void requestContacts(final FlickrClient account, final boolean forceRefresh, final int page) {
+        track(account.lookupContacts(forceRefresh, page), new FlickrFuture.Callback<FlickrClient.ContactsPage>() {
+                public void onSuccess(final FlickrClient.ContactsPage contactsPage) {
+                    if (!contactsPage.isLastPage()) {
+                        requestContacts(account, forceRefresh, page+1);
+                    }
+                    addContactsAndContinueDiscovery(account, contactsPage.contacts, contactsPage.isLastPage());
+                }
+                public void onFailure(final Throwable err) {
+                    reportContactsFailure();
+                }
+            });
+    }
+
+    /**
+     * add one page of contacts and immediately start fetching their photos, so photo requests
+     * overlap with the remaining contacts pages. photos the planner shows most are fetched
+     * first, and contacts whose photos it never shows aren't fetched at all. contacts another
+     * account has already fetched are skipped.
+     *
+     * @param account the account whose contact list this is
+     * @param newContacts contacts from one page of the contact list
+     * @param isLastPage true if no more contacts pages will follow
+     */
+    private synchronized void addContactsAndContinueDiscovery(final FlickrClient account, final Set<Contact> newContacts,
+                                                              final boolean isLastPage) {
         Log.i("PhotoCollection", "added contacts: " + newContacts);
-        for (Contact contact : contacts) {
-            Log.d("PhotoCollection", "starting contactRequest, num in progress: " + contactRequestsInProgress);
-            flickr.lookupPhotos(this, contact);
-            contactRequestsInProgress++;
+        List<Contact> toFetch = new ArrayList<>();
+        for (Contact newContact : newContacts) {
+            Contact contact = mergeContact(newContact);
+            if (isShown(contact)) {
+                toFetch.add(contact);
+            } else {
+                // still a contact, but any photos we have are dropped when discovery completes
+                lastSyncByContact.remove(contact.getUserId());
+            }
+        }
+        if (toFetch.size() < newContacts.size()) {
+            Log.i("PhotoCollection", "not fetching photos of " + (newContacts.size() - toFetch.size())
+                  + " contacts that aren't shown");
+        }
+        Collections.sort(toFetch, MOST_SHOWN_FIRST);
+        for (Contact contact : toFetch) {
+            startContactRequest(account, contact);
+        }
+        if (isLastPage) {
+            contactListsInProgress--;
+            Log.i("PhotoCollection", "contact list complete. contact count: " + contacts.size()
+                  + ", lists still coming: " + contactListsInProgress);
+            checkDiscoveryProgress();
         }
     }
 
-    public synchronized void markContactRequestComplete() {
+    /**
+     * @return true if the planner ever shows the contact's photos
+     */
+    private static boolean isShown(final Contact contact) {
+        return ShowPlanner.getRelationshipLikelihood(contact.getRelationship()) > 0;
+    }
+
+    /**
+     * @return how many pages of the contact's photos to fetch, in proportion to how often the
+     *         planner shows them
+     */
+    private static int getMaxPhotoPages(final Contact contact) {
+        return Math.max(1, ShowPlanner.getRelationshipLikelihood(contact.getRelationship()) * PHOTO_PAGES_PER_LIKELIHOOD);
+    }
+
+    /**
+     * the rest of an account's contact list couldn't be fetched. carry on with the contacts we
+     * got.
+     */
+    private synchronized void reportContactsFailure() {
+        Log.w("PhotoCollection", "contact list incomplete, continuing with " + contacts.size() + " contacts");
+        contactListsInProgress--;
+        contactListPartial = true;
+        checkDiscoveryProgress();
+    }
+
+    /**
+     * request the contact's photos, or only the ones uploaded since their last sync if we have
+     * one. a contact is only fetched once per discovery, by the first account to ask. a resumed
+     * discovery skips contacts it has finished, and carries on after the pages it has. only
+     * called by synchronized methods.
+     *
+     * @param account the account that lists the contact
+     */
+    private void startContactRequest(final FlickrClient account, final Contact contact) {
+        if (contactsInCurrentSync.get(contact.getOrdinal()) || contactsDoneInSync.contains(contact.getUserId())) {
+            return;
+        }
+        contactsInCurrentSync.set(contact.getOrdinal());
+        long minUploadDate = 0;
+        if (lastSyncByContact.containsKey(contact.getUserId())) {
+            minUploadDate = lastSyncByContact.get(contact.getUserId()) - SYNC_OVERLAP_SECS;
+        }
+        if (!syncStartByContact.containsKey(contact.getUserId())) {
+            syncStartByContact.put(contact.getUserId(), TimeUnit.MILLISECONDS.toSeconds(new Date().getTime()));
+        }
+        Integer pagesDone = pagesDoneByContact.get(contact.getUserId());
+        int page = pagesDone == null ? 1 : pagesDone + 1;
+        Log.d("PhotoCollection", "starting contactRequest, num in progress: " + contactRequestsInProgress
+              + ", minUploadDate: " + minUploadDate + ", page: " + page);
+        requestPhotos(account, contact, minUploadDate, page);
+        contactRequestsInProgress++;
+    }
+
+    /**
+     * request a page of the contact's photos. the next page is requested as each one arrives,
+     * up to the contact's page budget. only called by synchronized methods.
+     */
+    private void requestPhotos(final FlickrClient account, final Contact contact, final long minUploadDate, final int page) {
+        track(account.lookupPhotos(this, contact, minUploadDate, page), new FlickrFuture.Callback<PhotosPageDecoder.PhotosPage>() {
+                public void onSuccess(final PhotosPageDecoder.PhotosPage photosPage) {
+                    addPhotos(photosPage.photos);
+                    if (page < photosPage.numPages && page < getMaxPhotoPages(contact)) {
+                        requestPhotos(account, contact, minUploadDate, page+1);
+                        markPageComplete(contact, page);
+                    } else {
+                        markContactRequestComplete(contact, true);
+                    }
+                }
+                public void onFailure(final Throwable err) {
+                    markContactRequestComplete(contact, false);
+                }
+            });
+    }
+
+    /**
+     * a contact has more pages of photos on the way. the photos we have so far may already be
+     * enough to start the slideshow.
+     *
+     * @param page the page that arrived
+     */
+    private synchronized void markPageComplete(final Contact contact, final int page) {
+        pagesDoneByContact.put(contact.getUserId(), page);
+        saveCheckpointSoon();
+        checkDiscoveryProgress();
+    }
+
+    /**
+     * all pages for a contact are in, or the request failed. a successful fetch becomes the
+     * starting point of that contact's next delta sync.
+     */
+    private synchronized void markContactRequestComplete(final Contact contact, final boolean succeeded) {
+        Long syncStart = syncStartByContact.remove(contact.getUserId());
+        pagesDoneByContact.remove(contact.getUserId());
+        if (succeeded && syncStart != null) {
+            lastSyncByContact.put(contact.getUserId(), syncStart);
+            contactsDoneInSync.add(contact.getUserId());
+        }
+        saveCheckpointSoon();
         contactRequestsInProgress--;
         Log.d("PhotoCollection", "completed contactRequest, num in progress: " + contactRequestsInProgress);
+        checkDiscoveryProgress();
+    }
 
-        // discovery complete or good enough, start slideshow
-        int numContactsComplete = contacts.size()-contactRequestsInProgress;
-        if (contactRequestsInProgress == 0 || discoveryInProgress && eagerStartAllowed()) {
-            if (contactRequestsInProgress == 0) {
-                Log.i("PhotoCollection", "discovery complete. photo count: " + photos.size());
+    /**
+     * start the slideshow if discovery is complete or good enough. only called by synchronized
+     * methods.
+     */
+    private void checkDiscoveryProgress() {
+        boolean discoveryComplete = contactListsInProgress == 0 && contactRequestsInProgress == 0;
+        if (discoveryComplete || discoveryInProgress && eagerStartAllowed()) {
+            if (discoveryComplete) {
+                // readers keep the photos they have until the new set is ready
+                PhotoIdSet toRemove = new PhotoIdSet();
+                // contacts missing from a partial list may still be there
+                if (!contactListPartial) {
+                    removeDroppedContacts(toRemove);
+                }
+                findUnshownPhotos(toRemove);
+                if (fullSyncInProgress) {
+                    findStalePhotos(toRemove);
+                }
+                publishWithout(toRemove);
+                if (fullSyncInProgress) {
+                    photosSeenInSync = null;
+                    fullSyncInProgress = false;
+                    if (!contactListPartial) {
+                        timeOfLastFullSync = new Date();
+                    }
+                }
+                timeOfSyncStart = null;
+                contactsDoneInSync.clear();
+                if (checkpoint != null) {
+                    checkpoint.saveNow();
+                }
+                Log.i("PhotoCollection", "discovery complete. photo count: " + photoIds.size());
+                for (FlickrClient account : accounts) {
+                    account.dumpStatsToLog();
+                }
             } else {
-                Log.i("PhotoCollection", "discovery sufficient. numContactsComplete: " + numContactsComplete
-                      + " photo count: " + photos.size());
+                Log.i("PhotoCollection", "discovery sufficient. " + getDiscoveryProgress());
             }
             timeOfLastDiscovery = new Date();
             discoveryInProgress = false;
 
-            Toast.makeText(this.photoFrameActivity.getApplicationContext(),
-                           R.string.sync_to_db,
-                           Toast.LENGTH_SHORT).show();
-
+            photoFrameActivity.reportPhotosUpToDate();
             photoFrameActivity.startShow();
         }
     }
 
+    /**
+     * forget contacts that are no longer in any account's contact list. only called by
+     * synchronized methods, once the whole contact lists have arrived.
+     *
+     * @param toRemove gets the dropped contacts' photos
+     */
+    private void removeDroppedContacts(final PhotoIdSet toRemove) {
+        Set<Contact> droppedContacts = new HashSet<>();
+        for (Contact contact : contacts.getAll()) {
+            if (!contactsListedInSync.get(contact.getOrdinal())) {
+                droppedContacts.add(contact);
+            }
+        }
+        if (droppedContacts.isEmpty()) {
+            return;
+        }
+        Log.i("PhotoCollection", "removing dropped contacts: " + droppedContacts);
+        for (Contact contact : droppedContacts) {
+            contacts.remove(contact);
+            lastSyncByContact.remove(contact.getUserId());
+        }
+        for (Photo photo : generation.get().getPhotos()) {
+            if (droppedContacts.contains(photo.getOwner())) {
+                toRemove.add(photo.getId());
+            }
+        }
+    }
+
+    /**
+     * find photos of contacts the planner never shows, e.g. ones that were friends when their
+     * photos were fetched. only called by synchronized methods, once discovery is complete.
+     */
+    private void findUnshownPhotos(final PhotoIdSet toRemove) {
+        for (Photo photo : generation.get().getPhotos()) {
+            if (!isShown(photo.getOwner())) {
+                toRemove.add(photo.getId());
+            }
+        }
+    }
+
+    /**
+     * find photos that weren't listed by a full sync, for the contacts whose listing
+     * succeeded. only called by synchronized methods, at the end of a full sync.
+     */
+    private void findStalePhotos(final PhotoIdSet toRemove) {
+        int numRemoved = 0;
+        for (Photo photo : generation.get().getPhotos()) {
+            if (lastSyncByContact.containsKey(photo.getOwner().getUserId()) && !photosSeenInSync.contains(photo.getId())) {
+                toRemove.add(photo.getId());
+                numRemoved++;
+            }
+        }
+        Log.i("PhotoCollection", "removing " + numRemoved + " photos that are gone from flickr");
+    }
+
+    /**
+     * swap in a new generation without the photos, in one step. only called by synchronized
+     * methods.
+     */
+    private void publishWithout(final PhotoIdSet toRemove) {
+        if (toRemove.size() == 0) {
+            return;
+        }
+        List<Contact> removedOwners = new ArrayList<>(toRemove.size());
+        PhotoGeneration next = generation.get().without(toRemove, removedOwners);
+        photoIds.removeAll(toRemove);
+        for (Contact owner : removedOwners) {
+            uncountPhoto(owner.getOrdinal());
+        }
+        generation.set(next);
+        Log.i("PhotoCollection", "generation " + next.getId() + ": removed " + removedOwners.size()
+              + " photos, " + next.size() + " left");
+    }
+
     /**
      * we can start even if not all contacts have responded yet if we have an acceptable mix of
      * photos to fill the queue for the first time.
      */
     private boolean eagerStartAllowed() {
-        Set<Contact> contactsWithPhotos = new HashSet<>();
-        for (Photo photo : photos) {
-            contactsWithPhotos.add(photo.getOwner());
+        return numContributors>=MIN_CONTACTS_TO_START && photoIds.size()>=Display.NUM_PHOTOS_TO_PLAN;
+    }
+
+    /**
+     * make the photo's owner the contact we hold for its userId, adding it if there isn't one,
+     * so its ordinal is ours. only called by synchronized methods.
+     */
+    private void resolveOwner(final Photo photo) {
+        Contact owner = photo.getOwner();
+        if (contacts.get(owner.getUserId()) != owner) {
+            photo.setOwner(contacts.add(owner));
+        }
+    }
+
+    /**
+     * a photo was added. only called by synchronized methods.
+     */
+    private void countPhoto(final Photo photo) {
+        int ordinal = photo.getOwner().getOrdinal();
+        if (ordinal >= photoCountByOwner.length) {
+            photoCountByOwner = Arrays.copyOf(photoCountByOwner, Math.max(ordinal + 1, photoCountByOwner.length * 2));
+        }
+        if (photoCountByOwner[ordinal]++ == 0) {
+            numContributors++;
         }
-        return contactsWithPhotos.size()>=MIN_CONTACTS_TO_START && photos.size()>=Display.NUM_PHOTOS_TO_PLAN;
     }
 
-    public synchronized void reportDiscoveryFailure() {
-        discoveryFailed = true;
+    /**
+     * a photo of the owner with the ordinal was removed. only called by synchronized methods.
+     */
+    private void uncountPhoto(final int ordinal) {
+        if (--photoCountByOwner[ordinal] == 0) {
+            numContributors--;
+        }
+    }
+
+    /**
+     * discovery couldn't get started. photos from earlier syncs are kept, and only if there are
+     * none is this reported as a failure.
+     */
+    private synchronized void reportDiscoveryFailure() {
+        if (photoIds.size() == 0) {
+            discoveryFailed = true;
+        } else {
+            Log.w("PhotoCollection", "discovery failed, keeping " + photoIds.size() + " photos");
+        }
         discoveryInProgress = false;
         timeOfLastDiscovery = new Date();
         photoFrameActivity.startShow();
     }
 
-    public synchronized boolean hasDiscoveryFailed() {
+    public boolean hasDiscoveryFailed() {
         return discoveryFailed;
     }
 
-    public synchronized void addPhoto(final Photo photo) {
-        photos.add(photo);
+    public void addPhoto(final Photo photo) {
+        addPhotos(Collections.singletonList(photo));
     }
 
-    public Set<Photo> getPhotos() throws DiscoveryFailureException {
-        if (hasDiscoveryFailed()) {
+    /**
+     * add a page of photos. they're taken in under one lock and published to readers in one
+     * step, instead of a lock and a new snapshot for each photo. owners we don't hold yet are
+     * added to the contacts.
+     */
+    public synchronized void addPhotos(final Collection<Photo> newPhotos) {
+        List<Photo> added = new ArrayList<>(newPhotos.size());
+        for (Photo photo : newPhotos) {
+            if (photoIds.add(photo.getId())) {
+                resolveOwner(photo);
+                added.add(photo);
+                countPhoto(photo);
+            }
+            if (photosSeenInSync != null) {
+                photosSeenInSync.add(photo.getId());
+            }
+        }
+        if (!added.isEmpty()) {
+            generation.set(generation.get().appendAll(added));
+        }
+    }
+
+    /**
+     * @return the photos as of now, read only
+     */
+    public List<Photo> getPhotos() throws DiscoveryFailureException {
+        return getPhotoGeneration().getPhotos();
+    }
+
+    /**
+     * get the current snapshot of the photos. readers can keep a count of the photos they've
+     * consumed and pick up only the new ones from a later snapshot, as long as its generation
+     * id hasn't changed. doesn't lock the collection.
+     */
+    public PhotoGeneration getPhotoGeneration() throws DiscoveryFailureException {
+        if (discoveryFailed) {
             throw new DiscoveryFailureException();
         }
-        return photos;
+        return generation.get();
+    }
+
+    /**
+     * get the photos added after the first numAlreadySeen, in the order they were added.
+     *
+     * @param numAlreadySeen count of photos of the current generation the caller has already consumed
+     */
+    public List<Photo> getPhotosAddedSince(final int numAlreadySeen) throws DiscoveryFailureException {
+        return getPhotoGeneration().getPhotosSince(numAlreadySeen);
     }
 
     public Date getTimeOfLastDiscovery() {
         return timeOfLastDiscovery;
     }
 
-    public void dumpToLog() {
-        Map<Contact,Integer> counts = new HashMap<>();
-        for (Photo photo : photos) {
-            Contact owner = photo.getOwner();
-            if (counts.containsKey(owner)) {
-                counts.put(owner, counts.get(owner)+1);
-            } else {
-                counts.put(owner, 1);
+    /**
+     * @return counts describing how far the current or last discovery got
+     */
+    public synchronized DiscoveryProgress getDiscoveryProgress() {
+        return new DiscoveryProgress(contactListsInProgress > 0 || contactRequestsInProgress > 0, contacts.size(),
+                                     contactRequestsInProgress, numContributors, photoIds.size());
+    }
+
+    /**
+     * log the photo count of each contact we have photos of
+     */
+    public synchronized void dumpToLog() {
+        Log.i("PhotoCollection", getDiscoveryProgress().toString());
+        for (Contact contact : contacts.getAll()) {
+            int ordinal = contact.getOrdinal();
+            if (ordinal < photoCountByOwner.length && photoCountByOwner[ordinal] > 0) {
+                Log.i("PhotoCollection", contact + " " + photoCountByOwner[ordinal]);
             }
         }
-        for (Map.Entry entry : counts.entrySet()) {
-            Log.i("PhotoCollection", entry.getKey() + " " + entry.getValue());
+    }
+
+    /**
+     * a snapshot of discovery's counters
+     */
+    public static class DiscoveryProgress {
+        /** true while contact lists or photo listings are still coming in */
+        public final boolean inProgress;
+        public final int numContacts;
+        /** contacts whose photos are still being listed */
+        public final int numContactRequestsInProgress;
+        /** contacts we have at least one photo of */
+        public final int numContributors;
+        public final int numPhotos;
+
+        public DiscoveryProgress(final boolean inProgress, final int numContacts, final int numContactRequestsInProgress,
+                                 final int numContributors, final int numPhotos) {
+            this.inProgress = inProgress;
+            this.numContacts = numContacts;
+            this.numContactRequestsInProgress = numContactRequestsInProgress;
+            this.numContributors = numContributors;
+            this.numPhotos = numPhotos;
+        }
+
+        @Override
+        public String toString() {
+            return (inProgress ? "discovery in progress: " : "discovery done: ") + numContacts + " contacts, "
+                + numContactRequestsInProgress + " being listed, " + numContributors + " with photos, "
+                + numPhotos + " photos";
         }
     }
 }
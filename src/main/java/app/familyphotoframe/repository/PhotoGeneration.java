@@ -0,0 +1,153 @@
+package app.familyphotoframe.repository;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+
+/**
+ * an immutable snapshot of the collection's photos, in the order they were added.
+ *
+ * the photos are kept in a column store, and each one read is a new view of its row. new photos
+ * don't copy the snapshot: the next one shares the store and only writes past this one's size,
+ * so a published snapshot never changes. when photos are removed the collection starts over
+ * with a new generation id, and readers that kept count of what they've seen have to start
+ * over too.
+ */
+public class PhotoGeneration {
+    private static final int MIN_CAPACITY = 64;
+
+    private final long id;
+    private final PhotoStore store;
+    private final int size;
+
+    /**
+     * @param id tells generations apart. snapshots that only added photos keep the id.
+     */
+    public PhotoGeneration(final long id, final Collection<Photo> photos) {
+        this.id = id;
+        store = new PhotoStore(Math.max(MIN_CAPACITY, photos.size()));
+        int row = 0;
+        for (Photo photo : photos) {
+            store.set(row++, photo);
+        }
+        size = row;
+    }
+
+    private PhotoGeneration(final long id, final PhotoStore store, final int size) {
+        this.id = id;
+        this.store = store;
+        this.size = size;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a new view of the photo at the position
+     */
+    public Photo get(final int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("photo " + position + " of " + size);
+        }
+        return store.get(position);
+    }
+
+    /**
+     * @return the owner of the photo at the position, without building the photo
+     */
+    public Contact getOwner(final int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("photo " + position + " of " + size);
+        }
+        return store.getOwner(position);
+    }
+
+    /**
+     * @return the photos, read only
+     */
+    public List<Photo> getPhotos() {
+        return getPhotosSince(0);
+    }
+
+    /**
+     * @param numAlreadySeen count of photos of this generation the caller has already consumed
+     * @return the photos after the first numAlreadySeen, read only. each one is built as it's read.
+     */
+    public List<Photo> getPhotosSince(final int numAlreadySeen) {
+        if (numAlreadySeen >= size) {
+            return Collections.emptyList();
+        }
+        final int from = numAlreadySeen;
+        return new AbstractList<Photo>() {
+            @Override
+            public Photo get(final int index) {
+                return PhotoGeneration.this.get(from + index);
+            }
+
+            @Override
+            public int size() {
+                return size - from;
+            }
+        };
+    }
+
+    /**
+     * the rows are copied column by column, without building the photos.
+     *
+     * @param ids photos to leave out
+     * @param removedOwners gets the owner of each photo left out
+     * @return a new generation with the rest of the photos, in order
+     */
+    PhotoGeneration without(final PhotoIdSet ids, final List<Contact> removedOwners) {
+        PhotoStore target = store.emptyCopy(Math.max(MIN_CAPACITY, size));
+        int newSize = 0;
+        for (int row=0; row<size; row++) {
+            if (store.hasIdIn(row, ids)) {
+                removedOwners.add(store.getOwner(row));
+            } else {
+                store.copyRow(row, target, newSize++);
+            }
+        }
+        return new PhotoGeneration(id + 1, target, newSize);
+    }
+
+    /**
+     * only called by the collection, on its latest snapshot, so a row is never written twice.
+     *
+     * @return a snapshot of the same generation with the photo added at the end
+     */
+    PhotoGeneration append(final Photo photo) {
+        return appendAll(Collections.singletonList(photo));
+    }
+
+    /**
+     * like append, for a batch of photos. the store grows at most once, and there's only one
+     * new snapshot to publish.
+     *
+     * @return a snapshot of the same generation with the photos added at the end, in order
+     */
+    PhotoGeneration appendAll(final Collection<Photo> photos) {
+        if (photos.isEmpty()) {
+            return this;
+        }
+        int newSize = size + photos.size();
+        PhotoStore target = store;
+        if (newSize > target.capacity()) {
+            target = store.grow(Math.max(newSize, size * 2), size);
+        }
+        int row = size;
+        for (Photo photo : photos) {
+            target.set(row++, photo);
+        }
+        return new PhotoGeneration(id, target, newSize);
+    }
+}
@@ -0,0 +1,162 @@
+package app.familyphotoframe.repository;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * a set of photo ids. numeric ids, which is all of flickr's, are kept as longs in an open
+ * addressing table, about 16 bytes each instead of a hash set entry and a string. other ids go
+ * in a plain set.
+ *
+ * not thread safe.
+ */
+class PhotoIdSet {
+    private static final long EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] table;
+    private int numPacked;
+    private final Set<String> unpacked = new HashSet<>();
+
+    PhotoIdSet() {
+        table = newTable(MIN_CAPACITY);
+    }
+
+    /**
+     * @return true if the id wasn't in the set
+     */
+    boolean add(final String id) {
+        long packed = PhotoStore.packDecimal(id);
+        if (packed < 0) {
+            return unpacked.add(id);
+        }
+        if ((numPacked + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        int slot = find(table, packed);
+        if (table[slot] == packed) {
+            return false;
+        }
+        table[slot] = packed;
+        numPacked++;
+        return true;
+    }
+
+    boolean contains(final String id) {
+        long packed = PhotoStore.packDecimal(id);
+        if (packed < 0) {
+            return unpacked.contains(id);
+        }
+        return containsPacked(packed);
+    }
+
+    /**
+     * @param packed an id as packed by PhotoStore.packDecimal
+     */
+    boolean containsPacked(final long packed) {
+        return table[find(table, packed)] == packed;
+    }
+
+    /**
+     * @return true if the id was in the set
+     */
+    boolean remove(final String id) {
+        long packed = PhotoStore.packDecimal(id);
+        if (packed < 0) {
+            return unpacked.remove(id);
+        }
+        return removePacked(packed);
+    }
+
+    private boolean removePacked(final long packed) {
+        int slot = find(table, packed);
+        if (table[slot] != packed) {
+            return false;
+        }
+        table[slot] = EMPTY;
+        numPacked--;
+        // move later entries of the probe run back so lookups don't stop at the hole
+        int mask = table.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (table[next] != EMPTY) {
+            int home = hash(table[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                table[next] = EMPTY;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * remove every id in the other set, without unpacking them
+     */
+    void removeAll(final PhotoIdSet other) {
+        for (long packed : other.table) {
+            if (packed != EMPTY) {
+                removePacked(packed);
+            }
+        }
+        unpacked.removeAll(other.unpacked);
+    }
+
+    int size() {
+        return numPacked + unpacked.size();
+    }
+
+    void clear() {
+        table = newTable(MIN_CAPACITY);
+        numPacked = 0;
+        unpacked.clear();
+    }
+
+    /**
+     * add every id in the set to the collection
+     */
+    void addAllTo(final Collection<String> ids) {
+        for (long packed : table) {
+            if (packed != EMPTY) {
+                ids.add(Long.toString(packed));
+            }
+        }
+        ids.addAll(unpacked);
+    }
+
+    private void resize(final int capacity) {
+        long[] resized = newTable(capacity);
+        for (long packed : table) {
+            if (packed != EMPTY) {
+                resized[find(resized, packed)] = packed;
+            }
+        }
+        table = resized;
+    }
+
+    /**
+     * @return the slot holding the value, or the empty slot where it would go
+     */
+    private static int find(final long[] table, final long packed) {
+        int mask = table.length - 1;
+        int slot = hash(packed) & mask;
+        while (table[slot] != EMPTY && table[slot] != packed) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(final long packed) {
+        long mixed = packed * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private static long[] newTable(final int capacity) {
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+}
@@ -0,0 +1,156 @@
+package app.familyphotoframe.repository;
+
+import java.util.TimeZone;
+
+/**
+ * cleans up the fields of a photo record as it comes from flickr.
+ *
+ * instances are immutable, so one can be shared by any number of callbacks at once. none of the
+ * methods allocate or lock.
+ */
+public class PhotoRecordNormalizer {
+
+    /** returned by parseDateTaken if the date can't be used */
+    public static final long INVALID_DATE = Long.MIN_VALUE;
+
+    private static final long MS_PER_SECOND = 1000L;
+    private static final long MS_PER_MINUTE = 60 * MS_PER_SECOND;
+    private static final long MS_PER_HOUR = 60 * MS_PER_MINUTE;
+    private static final long MS_PER_DAY = 24 * MS_PER_HOUR;
+
+    /** datetaken fields are year, month, day, hour, minute, second */
+    private static final int NUM_FIELDS = 6;
+    private static final char[] SEPARATORS = {'-', '-', ' ', ':', ':'};
+    private static final int[] MAX_DIGITS = {4, 2, 2, 2, 2, 2};
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /** flickr's date taken fields are in the uploader's local time, read them in ours */
+    private final TimeZone timeZone;
+
+    public PhotoRecordNormalizer() {
+        this(TimeZone.getDefault());
+    }
+
+    public PhotoRecordNormalizer(final TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * @return the title, or an empty string if the title is just the camera's filename
+     */
+    public String normalizeTitle(final String title) {
+        if (title == null || isFilenameLike(title)) {
+            return "";
+        }
+        return title;
+    }
+
+    /**
+     * a title looks like a filename if it has no spaces, at least one digit and at least one
+     * - or _, e.g. IMG_20190704_154455 or DSC-0042. checked in a single pass.
+     */
+    public boolean isFilenameLike(final String title) {
+        boolean hasNumbers = false;
+        boolean hasDelimeters = false;
+        int length = title.length();
+        for (int ii=0; ii<length; ii++) {
+            char ch = title.charAt(ii);
+            if (ch == ' ') {
+                return false;
+            } else if (ch >= '0' && ch <= '9') {
+                hasNumbers = true;
+            } else if (ch == '-' || ch == '_') {
+                hasDelimeters = true;
+            }
+        }
+        return length > 0 && hasNumbers && hasDelimeters;
+    }
+
+    /**
+     * parse flickr's datetaken format, "yyyy-MM-dd HH:mm:ss". like the "y-M-d H:m:s" pattern we
+     * used before, fields may have fewer digits. unlike it, out of range fields (flickr sends
+     * 0000-00-00 00:00:00 for some photos) are rejected instead of rolled over, and the caller
+     * picks another date for the photo.
+     *
+     * @return millis since the epoch, or INVALID_DATE
+     */
+    public long parseDateTaken(final String dateTaken) {
+        if (dateTaken == null) {
+            return INVALID_DATE;
+        }
+        // each field is parsed by the same loop: digits up to the expected separator
+        int length = dateTaken.length();
+        int pos = 0;
+        int year = 0, month = 0, day = 0, hour = 0, minute = 0, second = 0;
+        for (int field=0; field<NUM_FIELDS; field++) {
+            int value = 0;
+            int numDigits = 0;
+            while (pos < length) {
+                char ch = dateTaken.charAt(pos);
+                if (ch < '0' || ch > '9') {
+                    break;
+                }
+                value = value*10 + (ch - '0');
+                numDigits++;
+                pos++;
+            }
+            if (numDigits == 0 || numDigits > MAX_DIGITS[field]) {
+                return INVALID_DATE;
+            }
+            if (field < NUM_FIELDS-1) {
+                if (pos >= length || dateTaken.charAt(pos) != SEPARATORS[field]) {
+                    return INVALID_DATE;
+                }
+                pos++;
+            }
+            switch (field) {
+            case 0: year = value; break;
+            case 1: month = value; break;
+            case 2: day = value; break;
+            case 3: hour = value; break;
+            case 4: minute = value; break;
+            default: second = value;
+            }
+        }
+        if (pos != length) {
+            return INVALID_DATE;
+        }
+
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+            || hour > 23 || minute > 59 || second > 59) {
+            return INVALID_DATE;
+        }
+
+        long localMillis = daysFromCivil(year, month, day) * MS_PER_DAY
+            + hour * MS_PER_HOUR + minute * MS_PER_MINUTE + second * MS_PER_SECOND;
+        // the offset depends on the instant, which depends on the offset. the raw offset gets
+        // close enough to find the right side of a dst change.
+        int offset = timeZone.getOffset(localMillis - timeZone.getRawOffset());
+        return localMillis - offset;
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        if (month == 2 && isLeapYear(year)) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month-1];
+    }
+
+    private static boolean isLeapYear(final int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * days since 1970-01-01 in the proleptic gregorian calendar.
+     *
+     * @see http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+     */
+    private static long daysFromCivil(final int year, final int month, final int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,272 @@
+package app.familyphotoframe.repository;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+
+/**
+ * photos kept column by column in primitive arrays, instead of one object with six strings and
+ * a date each. numeric ids, secrets and woeids are packed into numbers, server and farm values
+ * and owners are interned and stored as small codes, and dates are epoch millis. get() builds a
+ * Photo from a row when it's asked for, so photos held by callers are short lived views.
+ *
+ * flickr's ids are numbers and its secrets are short hex strings. a photo with a value that
+ * doesn't pack is kept whole on the side.
+ *
+ * a row is written once, and only past the rows a reader can be looking at, so readers don't
+ * lock. growing copies the columns into a new store and leaves this one as it was, so snapshots
+ * of the smaller store stay valid. only one thread writes.
+ */
+class PhotoStore {
+    /** longest secret that packs, in hex digits */
+    private static final int MAX_PACKED_SECRET_LENGTH = 15;
+
+    /** woeid column value for a photo without one */
+    private static final int NO_WOEID = -1;
+
+    /** owner column value for a row that's kept whole in the overflow */
+    private static final int OVERFLOW = -1;
+
+    /**
+     * hands out a small code for each distinct value. shared by a store and the stores grown
+     * from it. codes and values are only added.
+     *
+     * intern() is only called by the writer. get() is called by readers without a lock, so a
+     * grown array is filled in before it's published through the volatile field, and a reader
+     * never sees one without its values.
+     */
+    private static class Interner<T> {
+        private final Map<T,Integer> codes;
+        private volatile Object[] values = new Object[16];
+        private int size;
+
+        Interner(final boolean byIdentity) {
+            codes = byIdentity ? new IdentityHashMap<T,Integer>() : new HashMap<T,Integer>();
+        }
+
+        int intern(final T value) {
+            Integer code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            Object[] current = values;
+            if (size == current.length) {
+                Object[] grown = Arrays.copyOf(current, size * 2);
+                grown[size] = value;
+                values = grown;
+            } else {
+                // readers only look up codes of rows published after this
+                current[size] = value;
+            }
+            codes.put(value, size);
+            return size++;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(final int code) {
+            return (T) values[code];
+        }
+    }
+
+    private final long[] ids;
+    private final long[] secrets;
+    /** length of each secret, so leading zeroes survive packing */
+    private final byte[] secretLengths;
+    private final int[] serverCodes;
+    private final int[] farmCodes;
+    private final int[] ownerCodes;
+    private final long[] datesTaken;
+    private final int[] woeIds;
+    private final String[] titles;
+
+    private final Interner<String> servers;
+    private final Interner<String> farms;
+    /** by identity, so a contact that was replaced in the registry isn't mixed up with the new one */
+    private final Interner<Contact> owners;
+    /** rows that don't pack, by row */
+    private final Map<Integer,Photo> overflow;
+
+    PhotoStore(final int capacity) {
+        this(capacity, new Interner<String>(false), new Interner<String>(false), new Interner<Contact>(true),
+             new ConcurrentHashMap<Integer,Photo>());
+    }
+
+    private PhotoStore(final int capacity, final Interner<String> servers, final Interner<String> farms,
+                       final Interner<Contact> owners, final Map<Integer,Photo> overflow) {
+        ids = new long[capacity];
+        secrets = new long[capacity];
+        secretLengths = new byte[capacity];
+        serverCodes = new int[capacity];
+        farmCodes = new int[capacity];
+        ownerCodes = new int[capacity];
+        datesTaken = new long[capacity];
+        woeIds = new int[capacity];
+        titles = new String[capacity];
+        this.servers = servers;
+        this.farms = farms;
+        this.owners = owners;
+        this.overflow = overflow;
+    }
+
+    int capacity() {
+        return ids.length;
+    }
+
+    /**
+     * @return a store with more room and the first size rows of this one
+     */
+    PhotoStore grow(final int capacity, final int size) {
+        PhotoStore grown = new PhotoStore(capacity, servers, farms, owners, overflow);
+        System.arraycopy(ids, 0, grown.ids, 0, size);
+        System.arraycopy(secrets, 0, grown.secrets, 0, size);
+        System.arraycopy(secretLengths, 0, grown.secretLengths, 0, size);
+        System.arraycopy(serverCodes, 0, grown.serverCodes, 0, size);
+        System.arraycopy(farmCodes, 0, grown.farmCodes, 0, size);
+        System.arraycopy(ownerCodes, 0, grown.ownerCodes, 0, size);
+        System.arraycopy(datesTaken, 0, grown.datesTaken, 0, size);
+        System.arraycopy(woeIds, 0, grown.woeIds, 0, size);
+        System.arraycopy(titles, 0, grown.titles, 0, size);
+        return grown;
+    }
+
+    /**
+     * @return a store with no rows that shares this one's interned values, for copyRow()
+     */
+    PhotoStore emptyCopy(final int capacity) {
+        return new PhotoStore(capacity, servers, farms, owners, new ConcurrentHashMap<Integer,Photo>());
+    }
+
+    /**
+     * copy a row into a store made by emptyCopy(), column by column. the target row must not be
+     * visible to readers yet.
+     */
+    void copyRow(final int row, final PhotoStore target, final int targetRow) {
+        if (ownerCodes[row] == OVERFLOW) {
+            target.overflow.put(targetRow, overflow.get(row));
+            target.ownerCodes[targetRow] = OVERFLOW;
+            return;
+        }
+        target.ids[targetRow] = ids[row];
+        target.secrets[targetRow] = secrets[row];
+        target.secretLengths[targetRow] = secretLengths[row];
+        target.serverCodes[targetRow] = serverCodes[row];
+        target.farmCodes[targetRow] = farmCodes[row];
+        target.ownerCodes[targetRow] = ownerCodes[row];
+        target.datesTaken[targetRow] = datesTaken[row];
+        target.woeIds[targetRow] = woeIds[row];
+        target.titles[targetRow] = titles[row];
+    }
+
+    /**
+     * write a row that no reader can see yet
+     */
+    void set(final int row, final Photo photo) {
+        long id = packDecimal(photo.getId());
+        long secret = photo.getSecret() == null ? -1 : packHex(photo.getSecret());
+        long woeId = photo.getWoeId() == null ? NO_WOEID : packDecimal(photo.getWoeId());
+        if (id < 0 || secret < 0 || (photo.getWoeId() != null && (woeId < 0 || woeId > Integer.MAX_VALUE))
+            || photo.getServerId() == null || photo.getFarmId() == null || photo.getDateTaken() == null) {
+            overflow.put(row, photo);
+            ownerCodes[row] = OVERFLOW;
+            return;
+        }
+        ids[row] = id;
+        secrets[row] = secret;
+        secretLengths[row] = (byte) photo.getSecret().length();
+        serverCodes[row] = servers.intern(photo.getServerId());
+        farmCodes[row] = farms.intern(photo.getFarmId());
+        ownerCodes[row] = owners.intern(photo.getOwner());
+        datesTaken[row] = photo.getDateTaken().getTime();
+        woeIds[row] = (int) woeId;
+        titles[row] = photo.getTitle();
+    }
+
+    /**
+     * @return a new view of the row
+     */
+    Photo get(final int row) {
+        if (ownerCodes[row] == OVERFLOW) {
+            return overflow.get(row);
+        }
+        return new Photo(Long.toString(ids[row]), unpackHex(secrets[row], secretLengths[row]),
+                         servers.get(serverCodes[row]), farms.get(farmCodes[row]), owners.get(ownerCodes[row]),
+                         titles[row], new Date(datesTaken[row]), woeIds[row] == NO_WOEID ? null : Integer.toString(woeIds[row]));
+    }
+
+    /**
+     * @return the owner of the row, without building the photo
+     */
+    Contact getOwner(final int row) {
+        if (ownerCodes[row] == OVERFLOW) {
+            return overflow.get(row).getOwner();
+        }
+        return owners.get(ownerCodes[row]);
+    }
+
+    /**
+     * @return true if the row's id is in the set, without building the photo
+     */
+    boolean hasIdIn(final int row, final PhotoIdSet ids) {
+        if (ownerCodes[row] == OVERFLOW) {
+            return ids.contains(overflow.get(row).getId());
+        }
+        return ids.containsPacked(this.ids[row]);
+    }
+
+    /**
+     * @return the value of a plain decimal number that reads back the same, or -1 if it doesn't
+     *         pack, e.g. with a sign or leading zero
+     */
+    static long packDecimal(final String value) {
+        int length = value.length();
+        if (length == 0 || length > 18 || (length > 1 && value.charAt(0) == '0')) {
+            return -1;
+        }
+        long packed = 0;
+        for (int ii=0; ii<length; ii++) {
+            char ch = value.charAt(ii);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            packed = packed * 10 + (ch - '0');
+        }
+        return packed;
+    }
+
+    /**
+     * @return the value of a lower case hex string, or -1 if it doesn't pack
+     */
+    static long packHex(final String value) {
+        int length = value.length();
+        if (length == 0 || length > MAX_PACKED_SECRET_LENGTH) {
+            return -1;
+        }
+        long packed = 0;
+        for (int ii=0; ii<length; ii++) {
+            int digit = Character.digit(value.charAt(ii), 16);
+            if (digit < 0 || Character.isUpperCase(value.charAt(ii))) {
+                return -1;
+            }
+            packed = (packed << 4) | digit;
+        }
+        return packed;
+    }
+
+    static String unpackHex(final long packed, final int length) {
+        String hex = Long.toHexString(packed);
+        if (hex.length() == length) {
+            return hex;
+        }
+        StringBuilder padded = new StringBuilder(length);
+        for (int ii=hex.length(); ii<length; ii++) {
+            padded.append('0');
+        }
+        return padded.append(hex).toString();
+    }
+}
@@ -0,0 +1,237 @@
+package app.familyphotoframe.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NoSuchElementException;
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+
+/**
+ * decodes a page of photos from a flickr photo list response (people.getPhotos and friends).
+ *
+ * this is a pull parser over the response stream, so it builds Photo objects directly without
+ * a json tree in between. fields we don't use are skipped without being materialized.
+ *
+ * not thread safe, use one decoder per request.
+ */
+public class PhotosPageDecoder {
+
+    /**
+     * finds the contact for a photo's owner id
+     */
+    public interface ContactLookup {
+        /**
+         * @throws NoSuchElementException if the user isn't a known contact
+         */
+        Contact getContact(String userId);
+    }
+
+    /**
+     * for listings that span contacts, like photos.getContactsPhotos. owners that aren't known
+     * yet are added on the spot, under the name the listing gives them.
+     */
+    public interface OwnerLookup extends ContactLookup {
+        /**
+         * @return the known contact, or a new one if there isn't one
+         */
+        Contact getOrAddContact(String userId, String userName);
+    }
+
+    /**
+     * one decoded page
+     */
+    public static class PhotosPage {
+        /** 1-based page number */
+        public int page;
+        /** total number of pages */
+        public int numPages;
+        /** false if flickr reported an error instead of a page */
+        public boolean ok;
+        /** photos we can show */
+        public List<Photo> photos = new ArrayList<>();
+        /** count of records skipped due to format or bad data */
+        public int numSkipped;
+    }
+
+    private static final String FLICKR_STAT_FIELD = "stat";
+    private static final String FLICKR_STAT_OK = "ok";
+    private static final String FLICKR_PHOTOS_FIELD = "photos";
+    private static final String FLICKR_PHOTO_FIELD = "photo";
+    private static final String FLICKR_PAGE_FIELD = "page";
+    private static final String FLICKR_PAGES_FIELD = "pages";
+    private static final String FLICKR_ID_FIELD = "id";
+    private static final String FLICKR_SECRET_FIELD = "secret";
+    private static final String FLICKR_SERVERID_FIELD = "server";
+    private static final String FLICKR_FARMID_FIELD = "farm";
+    private static final String FLICKR_OWNER_FIELD = "owner";
+    private static final String FLICKR_USERNAME_FIELD = "username";
+    private static final String FLICKR_DATETAKEN_FIELD = "datetaken";
+    private static final String FLICKR_DATEUPLOAD_FIELD = "dateupload";
+    private static final String FLICKR_WOEID_FIELD = "woeid";
+    private static final String FLICKR_TITLE_FIELD = "title";
+    private static final String FLICKR_FORMAT_FIELD = "originalformat";
+
+    private final ContactLookup contactLookup;
+
+    private final PhotoRecordNormalizer normalizer;
+
+    public PhotosPageDecoder(final ContactLookup contactLookup) {
+        this(contactLookup, new PhotoRecordNormalizer());
+    }
+
+    public PhotosPageDecoder(final ContactLookup contactLookup, final PhotoRecordNormalizer normalizer) {
+        this.contactLookup = contactLookup;
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * decode a response body. the stream is not closed.
+     *
+     * @throws IOException if the stream can't be read or isn't valid json
+     * @throws IllegalStateException if the json doesn't have the expected shape
+     */
+    public PhotosPage decode(final InputStream in) throws IOException {
+        return decode(new InputStreamReader(in, "UTF-8"));
+    }
+
+    public PhotosPage decode(final Reader in) throws IOException {
+        PhotosPage page = new PhotosPage();
+        JsonReader reader = new JsonReader(in);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (FLICKR_PHOTOS_FIELD.equals(name)) {
+                readPhotos(reader, page);
+            } else if (FLICKR_STAT_FIELD.equals(name)) {
+                page.ok = FLICKR_STAT_OK.equals(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return page;
+    }
+
+    private void readPhotos(final JsonReader reader, final PhotosPage page) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (FLICKR_PAGE_FIELD.equals(name)) {
+                page.page = reader.nextInt();
+            } else if (FLICKR_PAGES_FIELD.equals(name)) {
+                page.numPages = reader.nextInt();
+            } else if (FLICKR_PHOTO_FIELD.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Photo photo = readPhoto(reader);
+                    if (photo != null) {
+                        page.photos.add(photo);
+                    } else {
+                        page.numSkipped++;
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * @return the photo, or null if it can't be shown
+     */
+    private Photo readPhoto(final JsonReader reader) throws IOException {
+        String id = null;
+        String secret = null;
+        String serverId = null;
+        String farmId = null;
+        String ownerId = null;
+        String ownerName = null;
+        String dateTakenString = null;
+        String dateUploadString = null;
+        String title = "";
+        String woeId = null;
+        String format = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+            case FLICKR_ID_FIELD: id = reader.nextString(); break;
+            case FLICKR_SECRET_FIELD: secret = reader.nextString(); break;
+            case FLICKR_SERVERID_FIELD: serverId = reader.nextString(); break;
+            case FLICKR_FARMID_FIELD: farmId = reader.nextString(); break;
+            case FLICKR_OWNER_FIELD: ownerId = reader.nextString(); break;
+            case FLICKR_USERNAME_FIELD: ownerName = reader.nextString(); break;
+            case FLICKR_DATETAKEN_FIELD: dateTakenString = reader.nextString(); break;
+            case FLICKR_DATEUPLOAD_FIELD: dateUploadString = reader.nextString(); break;
+            case FLICKR_TITLE_FIELD: title = reader.nextString(); break;
+            case FLICKR_WOEID_FIELD: woeId = reader.nextString(); break;
+            case FLICKR_FORMAT_FIELD: format = reader.nextString(); break;
+            default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!"png".equalsIgnoreCase(format) && !"jpg".equalsIgnoreCase(format)) {
+            Log.d("PhotosPageDecoder", "skipping format: " + format);
+            return null;
+        }
+        if (id == null || secret == null || serverId == null || farmId == null
+            || ownerId == null) {
+            Log.w("PhotosPageDecoder", "skipping incomplete photo: " + id);
+            return null;
+        }
+
+        long dateTaken = normalizer.parseDateTaken(dateTakenString);
+        if (dateTaken == PhotoRecordNormalizer.INVALID_DATE) {
+            // flickr sends 0000-00-00 00:00:00 for real photos, they're still worth showing
+            dateTaken = parseDateUpload(dateUploadString);
+            Log.w("PhotosPageDecoder", "photo " + id + " has bad date taken: " + dateTakenString + ", using "
+                  + (dateTaken == 0 ? "the epoch" : "its upload date"));
+        }
+        Contact owner;
+        try {
+            if (ownerName != null && contactLookup instanceof OwnerLookup) {
+                owner = ((OwnerLookup) contactLookup).getOrAddContact(ownerId, ownerName);
+            } else {
+                owner = contactLookup.getContact(ownerId);
+            }
+        } catch (NoSuchElementException e) {
+            Log.w("PhotosPageDecoder", "skipping photo " + id + ": " + e);
+            return null;
+        }
+
+        return new Photo(id, secret, serverId, farmId, owner, normalizer.normalizeTitle(title), new Date(dateTaken), woeId);
+    }
+
+    /**
+     * @param dateUpload seconds since the epoch, as flickr sends it
+     * @return millis since the epoch, or 0 if there's no usable upload date
+     */
+    private long parseDateUpload(final String dateUpload) {
+        if (dateUpload == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(dateUpload) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
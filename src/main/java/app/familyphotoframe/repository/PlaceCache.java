@@ -0,0 +1,175 @@
+package app.familyphotoframe.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import android.util.Log;
+
+/**
+ * place names by woeid, kept on disk so they survive restarts. holds at most maxEntries names
+ * and evicts the least recently used one when full.
+ *
+ * the file is read in the background at construction time. writes are coalesced and done in the
+ * background too.
+ */
+public class PlaceCache {
+    private static final int FILE_VERSION = 1;
+
+    private final File file;
+    private final int maxEntries;
+    private final ExecutorService ioExecutor;
+    private final Map<String,String> places;
+    private boolean loaded;
+    private boolean saveScheduled;
+
+    /**
+     * ctor
+     *
+     * @param file where the cache is stored
+     * @param maxEntries max number of place names to keep
+     */
+    public PlaceCache(final File file, final int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        places = new LinkedHashMap<String,String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String,String> eldest) {
+                return size() > PlaceCache.this.maxEntries;
+            }
+        };
+        loaded = false;
+        saveScheduled = false;
+        ioExecutor = Executors.newSingleThreadExecutor();
+        ioExecutor.execute(new Runnable() {
+                public void run() {
+                    synchronized (PlaceCache.this) {
+                        ensureLoaded();
+                    }
+                }
+            });
+    }
+
+    /**
+     * @return the place name, or null if we haven't seen the woeid
+     */
+    public synchronized String get(final String woeId) {
+        ensureLoaded();
+        return places.get(woeId);
+    }
+
+    public synchronized void put(final String woeId, final String name) {
+        ensureLoaded();
+        places.put(woeId, name);
+        if (!saveScheduled) {
+            saveScheduled = true;
+            ioExecutor.execute(new Runnable() {
+                    public void run() {
+                        save();
+                    }
+                });
+        }
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return places.size();
+    }
+
+    /**
+     * wait for the saves scheduled so far to be written
+     */
+    void flush() throws InterruptedException, ExecutionException {
+        ioExecutor.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+    }
+
+    /**
+     * read the file if we haven't yet. only called while holding the lock.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                Log.w("PlaceCache", "ignoring place cache with old version");
+                return;
+            }
+            int count = in.readInt();
+            // entries are stored least recently used first, so reinserting keeps the lru order
+            for (int ii=0; ii<count; ii++) {
+                String woeId = in.readUTF();
+                String name = in.readUTF();
+                places.put(woeId, name);
+            }
+            Log.i("PlaceCache", "loaded " + places.size() + " places");
+        } catch (IOException e) {
+            Log.e("PlaceCache", "failed to load place cache: ", e);
+            places.clear();
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * write a snapshot to a temp file and move it into place, so a crash mid-write can't leave a
+     * truncated cache behind.
+     */
+    private void save() {
+        Map<String,String> snapshot;
+        synchronized (this) {
+            saveScheduled = false;
+            snapshot = new LinkedHashMap<>(places);
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String,String> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.e("PlaceCache", "failed to rename " + tmpFile);
+            }
+        } catch (IOException e) {
+            Log.e("PlaceCache", "failed to save place cache: ", e);
+        } finally {
+            close(out);
+        }
+    }
+
+    private void close(final Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w("PlaceCache", "close failed: ", e);
+        }
+    }
+}
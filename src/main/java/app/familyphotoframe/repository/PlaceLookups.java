@@ -0,0 +1,165 @@
+package app.familyphotoframe.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import android.util.Log;
+
+import app.familyphotoframe.model.Photo;
+
+/**
+ * places lookups in flight, keyed by woeid. photos in the same place share one request, which
+ * is only aborted once every future waiting on it has been cancelled. names that come back are
+ * kept in the places cache.
+ *
+ * thread safe.
+ */
+class PlaceLookups {
+
+    /**
+     * starts the places request for a woeid
+     */
+    interface Sender {
+        /**
+         * the outcome is reported with complete(), on any thread
+         *
+         * @return aborts the request
+         */
+        Runnable send(String woeId);
+    }
+
+    /**
+     * photos waiting on one places request, keyed by the future each was promised
+     */
+    private static class PlaceRequest {
+        final Map<FlickrFuture<String>,Photo> waiters = new HashMap<>();
+        /** null until the request has been sent */
+        Runnable canceller;
+    }
+
+    private final PlaceCache placesCache;
+    private final Sender sender;
+    private final Executor deliveryExecutor;
+    private final Map<String,PlaceRequest> requestsInFlight = new HashMap<>();
+
+    /**
+     * @param deliveryExecutor completes the futures
+     */
+    PlaceLookups(final PlaceCache placesCache, final Sender sender, final Executor deliveryExecutor) {
+        this.placesCache = placesCache;
+        this.sender = sender;
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    /**
+     * @param photo has a woeid and no location yet
+     * @return the place name, or null if flickr doesn't have one or the request failed
+     */
+    FlickrFuture<String> lookup(final Photo photo) {
+        final String woeId = photo.getWoeId();
+        final FlickrFuture<String> future = new FlickrFuture<>();
+        PlaceRequest placeRequest = null;
+        synchronized (requestsInFlight) {
+            // check the cache under the lock so a response landing right now can't be missed
+            String cachedLocation = placesCache.get(woeId);
+            if (cachedLocation != null) {
+                Log.d("PlaceLookups", "places cache hit");
+                photo.setLocation(cachedLocation);
+                return FlickrFuture.completed(cachedLocation);
+            }
+            PlaceRequest inFlight = requestsInFlight.get(woeId);
+            if (inFlight != null) {
+                Log.d("PlaceLookups", "places request already in flight for " + woeId);
+                inFlight.waiters.put(future, photo);
+            } else {
+                placeRequest = new PlaceRequest();
+                placeRequest.waiters.put(future, photo);
+                requestsInFlight.put(woeId, placeRequest);
+            }
+        }
+        future.setCanceller(new Runnable() {
+                public void run() {
+                    cancelWaiter(woeId, future);
+                }
+            });
+        if (placeRequest == null) {
+            return future;
+        }
+
+        Log.i("PlaceLookups", "starting places request for " + photo);
+        Runnable canceller = sender.send(woeId);
+        boolean abandoned = false;
+        synchronized (requestsInFlight) {
+            if (requestsInFlight.get(woeId) == placeRequest) {
+                // every waiter may have gone while it was being sent
+                abandoned = placeRequest.waiters.isEmpty();
+                if (abandoned) {
+                    requestsInFlight.remove(woeId);
+                } else {
+                    placeRequest.canceller = canceller;
+                }
+            }
+        }
+        if (abandoned) {
+            Log.d("PlaceLookups", "places request for " + woeId + " no longer needed");
+            canceller.run();
+        }
+        return future;
+    }
+
+    /**
+     * hand the result of a places request to every photo that was waiting on it.
+     *
+     * @param location place name, or null if the request failed
+     */
+    void complete(final String woeId, final String location) {
+        final PlaceRequest placeRequest;
+        synchronized (requestsInFlight) {
+            if (location != null) {
+                placesCache.put(woeId, location);
+            }
+            placeRequest = requestsInFlight.remove(woeId);
+        }
+        if (placeRequest == null) {
+            return;
+        }
+        for (final Map.Entry<FlickrFuture<String>,Photo> waiter : placeRequest.waiters.entrySet()) {
+            if (location != null) {
+                waiter.getValue().setLocation(location);
+            }
+            deliveryExecutor.execute(new Runnable() {
+                    public void run() {
+                        waiter.getKey().complete(location);
+                    }
+                });
+        }
+    }
+
+    int getNumInFlight() {
+        synchronized (requestsInFlight) {
+            return requestsInFlight.size();
+        }
+    }
+
+    /**
+     * a caller no longer wants a place name. abort the request if nobody else is waiting on it.
+     */
+    private void cancelWaiter(final String woeId, final FlickrFuture<String> future) {
+        Runnable toCancel = null;
+        synchronized (requestsInFlight) {
+            PlaceRequest placeRequest = requestsInFlight.get(woeId);
+            if (placeRequest == null || placeRequest.waiters.remove(future) == null) {
+                return;
+            }
+            // a request that hasn't been sent yet is dropped by lookup() once it is
+            if (placeRequest.waiters.isEmpty() && placeRequest.canceller != null) {
+                requestsInFlight.remove(woeId);
+                toCancel = placeRequest.canceller;
+            }
+        }
+        if (toCancel != null) {
+            Log.d("PlaceLookups", "places request for " + woeId + " no longer needed");
+            toCancel.run();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package app.familyphotoframe.repository;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import android.util.Log;
+
+/**
+ * request timings and outcomes per flickr method, so slow requests and regressions can be found
+ * on frames in the field.
+ *
+ * latencies go into fixed histogram buckets. the slowest requests are kept along with what they
+ * asked for, e.g. a contact's photos, so slow contacts stand out. the report can be logged, or
+ * written to a file in the background, which can be pulled off the frame with adb.
+ *
+ * thread safe.
+ */
+public class RequestMetrics {
+    /** upper bounds of the latency buckets, in ms. the last bucket holds everything slower. */
+    static final long[] LATENCY_BUCKETS_MS = {50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    /** how many of the slowest requests are kept */
+    static final int NUM_SLOWEST = 10;
+
+    /** status code recorded for attempts that got no response, e.g. a timeout */
+    public static final int NO_RESPONSE = 0;
+
+    /**
+     * counts for one flickr method
+     */
+    private static class MethodStats {
+        int inFlight;
+        int maxInFlight;
+        long numCompleted;
+        long numFailed;
+        long bytesReceived;
+        long totalNanos;
+        long maxNanos;
+        final long[] latencyCounts = new long[LATENCY_BUCKETS_MS.length + 1];
+        final Map<Integer,Integer> failuresByStatus = new TreeMap<>();
+    }
+
+    /**
+     * one of the slowest requests
+     */
+    private static class SlowRequest {
+        final String method;
+        final String label;
+        final long nanos;
+        final int statusCode;
+
+        SlowRequest(final String method, final String label, final long nanos, final int statusCode) {
+            this.method = method;
+            this.label = label;
+            this.nanos = nanos;
+            this.statusCode = statusCode;
+        }
+    }
+
+    private static final Comparator<SlowRequest> SLOWEST_FIRST = new Comparator<SlowRequest>() {
+            @Override
+            public int compare(final SlowRequest a, final SlowRequest b) {
+                return a.nanos > b.nanos ? -1 : (a.nanos == b.nanos ? 0 : 1);
+            }
+        };
+
+    /** where exportInBackground() writes, or null */
+    private final File exportFile;
+    /** writes the export file. made again by the first export after shutdown() */
+    private ExecutorService ioExecutor;
+
+    private final Map<String,MethodStats> statsByMethod = new TreeMap<>();
+    private final List<SlowRequest> slowest = new ArrayList<>();
+
+    /** photos handed to the collection since the frame started */
+    private long numPhotosIngested;
+    /**
+     * photos handed to the collection in the latest discovery, and when the first and latest of
+     * them were. the rate is taken over these, so the idle time between discoveries doesn't
+     * count.
+     */
+    private long numPhotosInDiscovery;
+    private long firstIngestNanos;
+    private long lastIngestNanos;
+
+    /**
+     * ctor
+     *
+     * @param exportFile where exportInBackground() writes the report, or null if it's never called
+     */
+    public RequestMetrics(final File exportFile) {
+        this.exportFile = exportFile;
+    }
+
+    /**
+     * an attempt at a request went out
+     */
+    public synchronized void requestStarted(final String method) {
+        MethodStats stats = getStats(method);
+        stats.inFlight++;
+        stats.maxInFlight = Math.max(stats.maxInFlight, stats.inFlight);
+    }
+
+    /**
+     * an attempt that was started is over. retries are separate attempts.
+     *
+     * @param label what was asked for, e.g. a contact's photos page
+     * @param elapsedNanos from the attempt going out until its response was read
+     * @param statusCode http status, or NO_RESPONSE
+     * @param succeeded false if the attempt failed, whether or not it's retried
+     * @param bytesReceived response body bytes on the wire, or -1 if unknown
+     */
+    public synchronized void requestFinished(final String method, final String label, final long elapsedNanos,
+                                             final int statusCode, final boolean succeeded, final long bytesReceived) {
+        MethodStats stats = getStats(method);
+        stats.inFlight--;
+        stats.numCompleted++;
+        stats.totalNanos += elapsedNanos;
+        stats.maxNanos = Math.max(stats.maxNanos, elapsedNanos);
+        stats.latencyCounts[getBucket(elapsedNanos)]++;
+        if (bytesReceived > 0) {
+            stats.bytesReceived += bytesReceived;
+        }
+        if (!succeeded) {
+            stats.numFailed++;
+            Integer count = stats.failuresByStatus.get(statusCode);
+            stats.failuresByStatus.put(statusCode, count == null ? 1 : count + 1);
+        }
+
+        if (slowest.size() < NUM_SLOWEST || elapsedNanos > slowest.get(slowest.size() - 1).nanos) {
+            slowest.add(new SlowRequest(method, label, elapsedNanos, statusCode));
+            Collections.sort(slowest, SLOWEST_FIRST);
+            if (slowest.size() > NUM_SLOWEST) {
+                slowest.remove(slowest.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * an attempt that was started was cancelled before it finished. it's not counted as
+     * completed.
+     */
+    public synchronized void requestCancelled(final String method) {
+        getStats(method).inFlight--;
+    }
+
+    /**
+     * a discovery is starting. the ingest rate is measured over each discovery on its own.
+     */
+    public synchronized void discoveryStarted() {
+        numPhotosInDiscovery = 0;
+        firstIngestNanos = 0;
+        lastIngestNanos = 0;
+    }
+
+    /**
+     * photos from a response were handed to the collection
+     */
+    public synchronized void photosIngested(final int count) {
+        photosIngested(count, System.nanoTime());
+    }
+
+    synchronized void photosIngested(final int count, final long nowNanos) {
+        if (numPhotosInDiscovery == 0) {
+            firstIngestNanos = nowNanos;
+        }
+        numPhotosIngested += count;
+        numPhotosInDiscovery += count;
+        lastIngestNanos = nowNanos;
+    }
+
+    public synchronized int getInFlight(final String method) {
+        return getStats(method).inFlight;
+    }
+
+    public synchronized long getNumCompleted(final String method) {
+        return getStats(method).numCompleted;
+    }
+
+    public synchronized long getNumFailed(final String method, final int statusCode) {
+        Integer count = getStats(method).failuresByStatus.get(statusCode);
+        return count == null ? 0 : count;
+    }
+
+    public synchronized long getBytesReceived(final String method) {
+        return getStats(method).bytesReceived;
+    }
+
+    /**
+     * @return completed attempts of the method in each latency bucket
+     */
+    public synchronized long[] getLatencyCounts(final String method) {
+        return getStats(method).latencyCounts.clone();
+    }
+
+    public synchronized long getNumPhotosIngested() {
+        return numPhotosIngested;
+    }
+
+    /**
+     * @return photos ingested per second in the latest discovery, from the first ingested to the
+     *         latest
+     */
+    public synchronized double getPhotosPerSecond() {
+        long elapsedNanos = lastIngestNanos - firstIngestNanos;
+        if (numPhotosInDiscovery == 0 || elapsedNanos <= 0) {
+            return 0;
+        }
+        return numPhotosInDiscovery * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * @return the report, one line per entry
+     */
+    public synchronized List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String,MethodStats> entry : statsByMethod.entrySet()) {
+            MethodStats stats = entry.getValue();
+            long avgMs = stats.numCompleted == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(stats.totalNanos / stats.numCompleted);
+            lines.add(String.format("%s: %d done, %d failed %s, in flight %d (max %d), avg %d ms, max %d ms, %d KB",
+                                    entry.getKey(), stats.numCompleted, stats.numFailed, stats.failuresByStatus,
+                                    stats.inFlight, stats.maxInFlight, avgMs, TimeUnit.NANOSECONDS.toMillis(stats.maxNanos),
+                                    stats.bytesReceived / 1024));
+            StringBuilder histogram = new StringBuilder("  ms");
+            for (int ii=0; ii<stats.latencyCounts.length; ii++) {
+                histogram.append(ii < LATENCY_BUCKETS_MS.length ? " <" + LATENCY_BUCKETS_MS[ii] : " more")
+                    .append(':').append(stats.latencyCounts[ii]);
+            }
+            lines.add(histogram.toString());
+        }
+        lines.add(String.format("photos ingested: %d, latest discovery %d at %.1f/s", numPhotosIngested,
+                                numPhotosInDiscovery, getPhotosPerSecond()));
+        for (SlowRequest request : slowest) {
+            lines.add(String.format("slow: %s %s %d ms, status %d", request.method, request.label,
+                                    TimeUnit.NANOSECONDS.toMillis(request.nanos), request.statusCode));
+        }
+        return lines;
+    }
+
+    public void dumpToLog() {
+        for (String line : getReport()) {
+            Log.i("RequestMetrics", line);
+        }
+    }
+
+    /**
+     * write the report, headed by the time
+     */
+    public void writeTo(final Writer out) throws IOException {
+        out.write("# " + new Date() + "\n");
+        for (String line : getReport()) {
+            out.write(line);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * write the report to the export file, replacing the last one
+     */
+    public synchronized void exportInBackground() {
+        if (ioExecutor == null || ioExecutor.isShutdown()) {
+            ioExecutor = Executors.newSingleThreadExecutor();
+        }
+        ioExecutor.execute(new Runnable() {
+                public void run() {
+                    export();
+                }
+            });
+    }
+
+    /**
+     * let the export thread go once any export already asked for is written. a later export
+     * starts a new one.
+     */
+    public synchronized void shutdown() {
+        if (ioExecutor != null) {
+            ioExecutor.shutdown();
+        }
+    }
+
+    /**
+     * wait for the exports asked for so far to be written
+     *
+     * @return false if they weren't done in time
+     */
+    boolean awaitExports(final long timeoutMs) throws InterruptedException {
+        final ExecutorService executor;
+        synchronized (this) {
+            executor = ioExecutor;
+        }
+        if (executor == null) {
+            return true;
+        }
+        // not under the lock, the export takes it to write the report
+        executor.shutdown();
+        return executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void export() {
+        File tmpFile = new File(exportFile.getPath() + ".tmp");
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+            writeTo(out);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(exportFile)) {
+                Log.e("RequestMetrics", "failed to rename " + tmpFile);
+            }
+        } catch (IOException e) {
+            Log.e("RequestMetrics", "failed to export metrics: ", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // already failed
+                }
+            }
+        }
+    }
+
+    private MethodStats getStats(final String method) {
+        MethodStats stats = statsByMethod.get(method);
+        if (stats == null) {
+            stats = new MethodStats();
+            statsByMethod.put(method, stats);
+        }
+        return stats;
+    }
+
+    private static int getBucket(final long elapsedNanos) {
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MS.length && elapsedMs >= LATENCY_BUCKETS_MS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,233 @@
+package app.familyphotoframe.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * every flickr request goes through here. limits how many requests are in flight at once and
+ * how fast new ones are started, and sends the most important requests first.
+ *
+ * a request holds its slot until the caller reports it finished with requestFinished().
+ */
+public class RequestScheduler {
+
+    /**
+     * request classes, most important first
+     */
+    public enum Priority {
+        DISCOVERY,  // profile and contact list, everything else waits on these
+        PHOTOS,
+        PLACES
+    }
+
+    private class QueuedRequest {
+        public Priority priority;
+        public long sequence;
+        public long enqueueTime;
+        public Runnable send;
+    }
+
+    /** max requests in flight at once */
+    private final int maxConcurrentRequests;
+
+    /** token bucket refill rate */
+    private final double requestsPerSecond;
+
+    /** token bucket capacity */
+    private final int burstSize;
+
+    /** created when first needed */
+    private Handler timerHandler;
+    private final PriorityQueue<QueuedRequest> queue;
+    private final Runnable pumpTask;
+    private boolean pumpScheduled;
+    private double tokens;
+    private long timeOfLastRefill;
+    private long nextSequence;
+    private int numInFlight;
+
+    // stats
+    private int maxQueueDepth;
+    private long numStarted;
+    private long totalWaitMs;
+    private long maxWaitMs;
+    private long[] numStartedByPriority;
+
+    /**
+     * ctor
+     *
+     * @param maxConcurrentRequests max requests in flight at once
+     * @param requestsPerSecond sustained rate at which requests may be started
+     * @param burstSize number of requests that may be started at once after a quiet period
+     */
+    public RequestScheduler(final int maxConcurrentRequests, final double requestsPerSecond, final int burstSize) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burstSize = burstSize;
+        queue = new PriorityQueue<>(11, new Comparator<QueuedRequest>() {
+                @Override
+                public int compare(final QueuedRequest a, final QueuedRequest b) {
+                    if (a.priority != b.priority) {
+                        return a.priority.compareTo(b.priority);
+                    }
+                    return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+                }
+            });
+        pumpTask = new Runnable() {
+                public void run() {
+                    synchronized (RequestScheduler.this) {
+                        pumpScheduled = false;
+                    }
+                    pump();
+                }
+            };
+        tokens = burstSize;
+        timeOfLastRefill = now();
+        numStartedByPriority = new long[Priority.values().length];
+    }
+
+    /**
+     * queue a request. send is run once a slot and a token are available.
+     *
+     * @param priority request class
+     * @param send starts the http request
+     */
+    public void submit(final Priority priority, final Runnable send) {
+        synchronized (this) {
+            QueuedRequest request = new QueuedRequest();
+            request.priority = priority;
+            request.sequence = nextSequence++;
+            request.enqueueTime = now();
+            request.send = send;
+            queue.add(request);
+            maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        }
+        pump();
+    }
+
+    /**
+     * drop a request that hasn't been started yet.
+     *
+     * @param send the runnable it was submitted with
+     * @return true if it was still queued. if not it has been started, or was never submitted.
+     */
+    public synchronized boolean cancel(final Runnable send) {
+        Iterator<QueuedRequest> iter = queue.iterator();
+        while (iter.hasNext()) {
+            if (iter.next().send == send) {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * a request started by this scheduler has completed, successfully or not.
+     */
+    public void requestFinished() {
+        synchronized (this) {
+            numInFlight--;
+        }
+        pump();
+    }
+
+    /**
+     * start as many queued requests as the limits allow. requests are sent outside the lock.
+     */
+    private void pump() {
+        List<Runnable> toSend = new ArrayList<>();
+        synchronized (this) {
+            long now = now();
+            refill(now);
+            while (numInFlight < maxConcurrentRequests && !queue.isEmpty()) {
+                if (tokens < 1) {
+                    if (!pumpScheduled) {
+                        long delayMs = (long) Math.ceil((1 - tokens) * 1000 / requestsPerSecond);
+                        postDelayed(pumpTask, delayMs);
+                        pumpScheduled = true;
+                    }
+                    break;
+                }
+                tokens -= 1;
+                QueuedRequest request = queue.poll();
+                long waitMs = now - request.enqueueTime;
+                totalWaitMs += waitMs;
+                maxWaitMs = Math.max(maxWaitMs, waitMs);
+                numStarted++;
+                numStartedByPriority[request.priority.ordinal()]++;
+                numInFlight++;
+                toSend.add(request.send);
+            }
+        }
+        for (Runnable send : toSend) {
+            send.run();
+        }
+    }
+
+    /**
+     * @return monotonic time in ms. tests replace the clock.
+     */
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * run the task on the main looper after delayMs. tests replace the timer. only called while
+     * holding the lock.
+     */
+    void postDelayed(final Runnable task, final long delayMs) {
+        if (timerHandler == null) {
+            timerHandler = new Handler(Looper.getMainLooper());
+        }
+        timerHandler.postDelayed(task, delayMs);
+    }
+
+    private void refill(final long now) {
+        tokens = Math.min(burstSize, tokens + (now - timeOfLastRefill) * requestsPerSecond / 1000);
+        timeOfLastRefill = now;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized int getNumInFlight() {
+        return numInFlight;
+    }
+
+    public synchronized long getNumStarted() {
+        return numStarted;
+    }
+
+    /**
+     * average time requests spent queued before being sent
+     */
+    public synchronized long getAverageWaitMs() {
+        return numStarted == 0 ? 0 : totalWaitMs / numStarted;
+    }
+
+    public synchronized long getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    public synchronized void dumpToLog() {
+        Log.i("RequestScheduler", String.format("queued: %d (max %d), in flight: %d, started: %d, wait avg/max: %d/%d ms",
+                                                queue.size(), maxQueueDepth, numInFlight, numStarted,
+                                                getAverageWaitMs(), maxWaitMs));
+        for (Priority priority : Priority.values()) {
+            Log.i("RequestScheduler", "  " + priority + " started: " + numStartedByPriority[priority.ordinal()]);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package app.familyphotoframe.slideshow;
 
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Date;
 import java.text.SimpleDateFormat;
 import android.util.Log;
@@ -109,7 +110,7 @@ public class Display implements Runnable {
 
     private synchronized void prime() throws InsufficientPhotosException, DiscoveryFailureException {
         Log.i("Display", "priming");
-        photoQueue.addAll(showPlanner.getPhotosToSchedule(NUM_PHOTOS_TO_PLAN));
+        enqueuePhotos(showPlanner.getPhotosToSchedule(NUM_PHOTOS_TO_PLAN));
         if (photoQueue.size() < MIN_SLIDESHOW_SIZE) {
             throw new InsufficientPhotosException();
         }
@@ -118,7 +119,6 @@ public class Display implements Runnable {
         for (int ii=0; ii<MIN_SLIDESHOW_SIZE; ii++) {
             Photo photo = photoQueue.poll();
             Log.i("Display", " adding " + photo);
-            flickr.lookupPlace(photo);
             photoHistory.add(photo);
         }
 
@@ -165,10 +165,19 @@ public class Display implements Runnable {
         showPhoto(nextPhoto, followingPhoto);
 
         if (isQueueLow()) {
-            photoQueue.addAll(showPlanner.getPhotosToSchedule(NUM_PHOTOS_TO_PLAN));
+            enqueuePhotos(showPlanner.getPhotosToSchedule(NUM_PHOTOS_TO_PLAN));
         }
     }
 
+    /**
+     * add photos to the queue and start resolving their places, so captions are ready by the
+     * time each photo is shown.
+     */
+    private void enqueuePhotos(final List<Photo> photos) {
+        photoQueue.addAll(photos);
+        flickr.lookupPlaces(photos);
+    }
+
     public synchronized void backward() {
         Log.i("Display", "backward");
         if (!slideshowReady) {
@@ -4,13 +4,15 @@ import java.lang.Math;
 import java.util.Date;
 import java.util.Calendar;
 import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Random;
 import android.util.Log;
 
 import app.familyphotoframe.repository.PhotoCollection;
+import app.familyphotoframe.repository.PhotoGeneration;
 import app.familyphotoframe.model.Photo;
 import app.familyphotoframe.model.Relationship;
 import app.familyphotoframe.exception.DiscoveryFailureException;
@@ -32,7 +34,9 @@ public class ShowPlanner {
     static final int numSeasonalityIntervals = nominalSeasonalLikelihood.length;
 
     private class IndexElement {
-        public List<Photo> photos;
+        /** positions of the photos in the indexed generation, so photos aren't held twice */
+        public int[] positions;
+        public int size;
         public int likelihood;
     }
 
@@ -45,26 +49,43 @@ public class ShowPlanner {
     /** time of last indexing request */
     private Date timeOfLastIndex;
 
+    /** count of photos from the collection that have been folded into photoIndex */
+    private int numPhotosIndexed;
+
+    /** the collection's generation the indexed photos came from */
+    private long indexedGenerationId;
+
+    private final Random random = new Random();
 
     public ShowPlanner(final PhotoCollection photoCollection) {
         this.photoCollection = photoCollection;
-        photoIndex = null;  // created in indexPhotos
+        photoIndex = null;  // created in resetIndex
 
         // Discovery has not occurred at the time of construction, so using the current
         // time will trigger indexing during the first call to getPhotosToSchedule()
         timeOfLastIndex = new Date();
+        numPhotosIndexed = 0;
+    }
+
+    /**
+     * how often photos of the relationship are shown, relative to the others. 0 means never,
+     * so discovery doesn't need to fetch them.
+     */
+    public static int getRelationshipLikelihood(final Relationship relationship) {
+        return nominalRelationshipLikelihood[relationship.getValue()];
     }
 
     /**
-     * populate photoIndex according to photo attributes
+     * start over with an empty photoIndex. recency and seasonality are relative to the time of
+     * this call.
      */
-    public void indexPhotos(Set<Photo> allPhotos) {
-        Log.i("ShowPlanner", "indexing photos");
+    void resetIndex() {
+        Log.i("ShowPlanner", "resetting index");
 
         // photoCollection.dumpToLog();
 
-        Date now = new Date();
-        timeOfLastIndex = now;
+        timeOfLastIndex = new Date();
+        numPhotosIndexed = 0;
 
         // Create photo index indexed by relationship, recency, seasonality
         photoIndex = new IndexElement[numRelationshipIntervals][numRecencyIntervals][numSeasonalityIntervals];
@@ -72,7 +93,7 @@ public class ShowPlanner {
             for (int iRecency = 0; iRecency < photoIndex[iRelationship].length; ++iRecency) {
                 for (int iSeasonality = 0; iSeasonality < photoIndex[iRelationship][iRecency].length; ++iSeasonality) {
                     IndexElement group = new IndexElement();
-                    group.photos = new LinkedList<Photo>();
+                    group.positions = new int[8];
                     group.likelihood =
                         nominalRelationshipLikelihood[iRelationship] *
                         nominalRecencyLikelihood[iRecency] *
@@ -81,14 +102,28 @@ public class ShowPlanner {
                 }
             }
         }
+    }
+
+    /**
+     * add the photos of the generation that aren't indexed yet to photoIndex according to
+     * photo attributes
+     */
+    public void indexPhotos(final PhotoGeneration generation) {
+        Log.i("ShowPlanner", "indexing " + (generation.size() - numPhotosIndexed) + " photos");
 
         // Organize photos into groups
-        for (Photo photo : allPhotos) {
+        for (int position = numPhotosIndexed; position < generation.size(); ++position) {
+            Photo photo = generation.get(position);
             int iRelationship = determineRelationship(photo);
-            int iRecency = determineRecency(now, photo);
-            int iSeasonality = determineSeasonality(now, photo);
-            photoIndex[iRelationship][iRecency][iSeasonality].photos.add(photo);
+            int iRecency = determineRecency(timeOfLastIndex, photo);
+            int iSeasonality = determineSeasonality(timeOfLastIndex, photo);
+            IndexElement group = photoIndex[iRelationship][iRecency][iSeasonality];
+            if (group.size == group.positions.length) {
+                group.positions = Arrays.copyOf(group.positions, group.size * 2);
+            }
+            group.positions[group.size++] = position;
         }
+        numPhotosIndexed = generation.size();
     }
 
     int determineRelationship(final Photo photo) {
@@ -126,10 +161,16 @@ public class ShowPlanner {
 
         List<Photo> selectedPhotos = new LinkedList<Photo>();
 
-        // Only index photos when photoCollection is updated
-        if (photoCollection.getTimeOfLastDiscovery().after(timeOfLastIndex)) {
-            indexPhotos(photoCollection.getPhotos());
+        // Rebuild the index when discovery completes or photos were removed, otherwise just
+        // fold in the photos that arrived since the last call. The snapshot doesn't change
+        // while we read it.
+        PhotoGeneration generation = photoCollection.getPhotoGeneration();
+        if (photoIndex == null || generation.getId() != indexedGenerationId
+            || photoCollection.getTimeOfLastDiscovery().after(timeOfLastIndex)) {
+            resetIndex();
+            indexedGenerationId = generation.getId();
         }
+        indexPhotos(generation);
 
         // Select photos from each group. The number of photos selected is equal to the
         // likelihood for the group so that the list of selected photos list will have
@@ -138,13 +179,17 @@ public class ShowPlanner {
             for (int iRecency = 0; iRecency < photoIndex[iRelationship].length; ++iRecency) {
                 for (int iSeasonality = 0; iSeasonality < photoIndex[iRelationship][iRecency].length; ++iSeasonality) {
                     IndexElement group = photoIndex[iRelationship][iRecency][iSeasonality];
-                    // If there are more than enough photos in a group, shuffle the photos
-                    // and select from the beginning. Otherwise select them all.
-                    if (group.photos.size() > group.likelihood) {
-                        Collections.shuffle(group.photos);
-                        selectedPhotos.addAll(group.photos.subList(0,group.likelihood));
-                    } else {
-                        selectedPhotos.addAll(group.photos);
+                    // If there are more than enough photos in a group, shuffle just enough of
+                    // them to the beginning and select those. Otherwise select them all.
+                    int numToSelect = Math.min(group.size, group.likelihood);
+                    for (int ii = 0; ii < numToSelect; ++ii) {
+                        if (group.size > group.likelihood) {
+                            int other = ii + random.nextInt(group.size - ii);
+                            int position = group.positions[other];
+                            group.positions[other] = group.positions[ii];
+                            group.positions[ii] = position;
+                        }
+                        selectedPhotos.add(generation.get(group.positions[ii]));
                     }
                 }
             }
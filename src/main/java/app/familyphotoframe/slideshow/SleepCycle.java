@@ -43,10 +43,11 @@ public class SleepCycle {
     }
 
     /**
-     * stop the slideshow and turn the screen off
+     * stop the slideshow and any discovery, and turn the screen off
      */
     public void sleep() {
         Log.i("SleepCycle", "begin sleep");
+        photoCollection.cancelDiscovery();
         display.itsNighttime();
         setScreenBrightness(WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_OFF);
         uiHandler.postAtTime(new WakeTask(), tomorrowMorning());
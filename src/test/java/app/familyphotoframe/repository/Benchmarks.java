@@ -0,0 +1,21 @@
+package app.familyphotoframe.repository;
+
+import org.junit.Assume;
+
+/**
+ * benchmarks take a while and their timings depend on the machine, so they only run when
+ * asked for, with -Dbenchmarks=true
+ */
+class Benchmarks {
+    static final String PROPERTY = "benchmarks";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * skip the calling test unless benchmarks were asked for
+     */
+    static void assumeEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean(PROPERTY));
+    }
+}
@@ -0,0 +1,105 @@
+package app.familyphotoframe.repository;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    private static final int FAILURES_TO_OPEN = 3;
+    private static final long COOLDOWN_MS = 1000;
+    private static final long MAX_COOLDOWN_MS = 3000;
+
+    private long nowMs;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        nowMs = 100000;
+        breaker = new CircuitBreaker("flickr.test", FAILURES_TO_OPEN, COOLDOWN_MS, MAX_COOLDOWN_MS) {
+                @Override
+                long now() {
+                    return nowMs;
+                }
+            };
+    }
+
+    @Test
+    public void opensAfterFailuresInARow() {
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertFalse("a success resets the count", breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertEquals(COOLDOWN_MS, breaker.getDelayMs());
+        assertEquals(1, breaker.getTimesOpened());
+    }
+
+    @Test
+    public void trialRequestClosesIt() {
+        open();
+        nowMs += COOLDOWN_MS;
+        assertTrue("the trial goes through", breaker.allowRequest());
+        assertFalse("only one trial at a time", breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.getDelayMs());
+    }
+
+    @Test
+    public void failedTrialDoublesTheCooldown() {
+        open();
+        nowMs += COOLDOWN_MS;
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(2 * COOLDOWN_MS, breaker.getDelayMs());
+
+        nowMs += 2 * COOLDOWN_MS - 1;
+        assertFalse(breaker.allowRequest());
+        nowMs += 1;
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals("capped", MAX_COOLDOWN_MS, breaker.getDelayMs());
+        assertEquals(3, breaker.getTimesOpened());
+
+        // a success starts over from the initial cooldown
+        nowMs += MAX_COOLDOWN_MS;
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        open();
+        assertEquals(COOLDOWN_MS, breaker.getDelayMs());
+    }
+
+    @Test
+    public void cancelledTrialLetsAnotherThrough() {
+        open();
+        nowMs += COOLDOWN_MS;
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordCancelled();
+        assertTrue(breaker.isOpen());
+        assertEquals("no new cooldown", 0, breaker.getDelayMs());
+        assertTrue("the next request is the trial", breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+
+        // cancelling while closed changes nothing
+        breaker.recordCancelled();
+        assertFalse(breaker.isOpen());
+    }
+
+    private void open() {
+        for (int ii=0; ii<FAILURES_TO_OPEN; ii++) {
+            breaker.recordFailure();
+        }
+        assertTrue(breaker.isOpen());
+    }
+}
@@ -0,0 +1,128 @@
+package app.familyphotoframe.repository;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Relationship;
+
+public class ContactRegistryTest {
+    private static final int BENCHMARK_CONTACTS = 10000;
+    private static final int BENCHMARK_PAGE_SIZE = 500;
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int BENCHMARK_ITERATIONS = 50;
+
+    @Test
+    public void looksUpByUserIdAndOrdinal() {
+        ContactRegistry registry = new ContactRegistry();
+        Contact first = new Contact("1@N00", "one", Relationship.FAMILY);
+        Contact second = new Contact("2@N00", "two", Relationship.FRIEND);
+        assertSame(first, registry.add(first));
+        assertSame(second, registry.add(second));
+
+        assertSame(first, registry.get("1@N00"));
+        assertSame(second, registry.get(second.getOrdinal()));
+        assertNull(registry.get("3@N00"));
+        assertEquals(2, registry.size());
+
+        // the same user again gets the contact already held
+        assertSame(first, registry.add(new Contact("1@N00", "other", Relationship.STRANGER)));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void reusesOrdinalsOfRemovedContacts() {
+        ContactRegistry registry = new ContactRegistry();
+        Contact first = registry.add(new Contact("1@N00", "one", Relationship.FAMILY));
+        registry.add(new Contact("2@N00", "two", Relationship.FRIEND));
+        int ordinal = first.getOrdinal();
+
+        assertTrue(registry.remove(first));
+        assertFalse(registry.remove(first));
+        assertNull(registry.get("1@N00"));
+        assertNull(registry.get(ordinal));
+
+        Contact third = registry.add(new Contact("3@N00", "three", Relationship.FRIEND));
+        assertEquals(ordinal, third.getOrdinal());
+        assertEquals(2, registry.getOrdinalLimit());
+        assertEquals(2, registry.getAll().size());
+    }
+
+    /**
+     * compare decoding pages whose owners are spread over many contacts, looking owners up in the
+     * registry against scanning a set of contacts, which is what the collection did before.
+     */
+    @Test
+    public void benchmarkAgainstLinearScan() throws Exception {
+        Benchmarks.assumeEnabled();
+        final ContactRegistry registry = new ContactRegistry();
+        final Set<Contact> contactSet = new HashSet<>();
+        for (int ii=0; ii<BENCHMARK_CONTACTS; ii++) {
+            Contact contact = new Contact(FakeFlickrServer.getContactUserId(ii), "user" + ii, Relationship.FRIEND);
+            registry.add(contact);
+            contactSet.add(contact);
+        }
+        PhotosPageDecoder.ContactLookup registryLookup = new PhotosPageDecoder.ContactLookup() {
+                public Contact getContact(final String userId) {
+                    return registry.get(userId);
+                }
+            };
+        PhotosPageDecoder.ContactLookup scanLookup = new PhotosPageDecoder.ContactLookup() {
+                public Contact getContact(final String userId) {
+                    for (Contact contact : contactSet) {
+                        if (contact.getUserId().equals(userId)) {
+                            return contact;
+                        }
+                    }
+                    return null;
+                }
+            };
+        byte[] response = makePageOfManyOwners(BENCHMARK_PAGE_SIZE).getBytes("UTF-8");
+
+        for (int ii=0; ii<WARMUP_ITERATIONS; ii++) {
+            new PhotosPageDecoder(scanLookup).decode(new ByteArrayInputStream(response));
+            new PhotosPageDecoder(registryLookup).decode(new ByteArrayInputStream(response));
+        }
+
+        long scanStart = System.nanoTime();
+        int scanCount = 0;
+        for (int ii=0; ii<BENCHMARK_ITERATIONS; ii++) {
+            scanCount += new PhotosPageDecoder(scanLookup).decode(new ByteArrayInputStream(response)).photos.size();
+        }
+        long scanNanos = System.nanoTime() - scanStart;
+
+        long registryStart = System.nanoTime();
+        int registryCount = 0;
+        for (int ii=0; ii<BENCHMARK_ITERATIONS; ii++) {
+            registryCount += new PhotosPageDecoder(registryLookup).decode(new ByteArrayInputStream(response)).photos.size();
+        }
+        long registryNanos = System.nanoTime() - registryStart;
+
+        assertEquals(scanCount, registryCount);
+        assertTrue(registryCount > 0);
+
+        System.out.println(String.format("page of %d photos, owners among %d contacts", BENCHMARK_PAGE_SIZE, BENCHMARK_CONTACTS));
+        System.out.println(String.format("linear scan: %10.0f photos/s", scanCount * 1e9 / scanNanos));
+        System.out.println(String.format("registry:    %10.0f photos/s", registryCount * 1e9 / registryNanos));
+        assertTrue("registry lookups should be faster than scanning", registryNanos < scanNanos);
+    }
+
+    /**
+     * a full size page made from the records of the recorded page, each photo owned by a
+     * different contact
+     */
+    private String makePageOfManyOwners(final int size) throws Exception {
+        JSONObject page = RecordedPages.makeFullPage(size);
+        JSONArray photos = page.getJSONObject("photos").getJSONArray("photo");
+        for (int ii=0; ii<photos.length(); ii++) {
+            photos.getJSONObject(ii).put("owner", FakeFlickrServer.getContactUserId((int) ((ii * 7919L) % BENCHMARK_CONTACTS)));
+        }
+        return page.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package app.familyphotoframe.repository;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class DiscoveryCacheTest {
+    private static final long TTL_MS = 60000;
+
+    private File file;
+    private long nowMs;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("discovery", ".cache");
+        assertTrue(file.delete());
+        nowMs = 1500000000000L;
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void staleEntriesAreKeptForRevalidation() {
+        DiscoveryCache cache = makeCache();
+        cache.put("contacts1", "{}", "\"etag1\"");
+        assertNotNull(cache.getFresh("contacts1"));
+
+        nowMs += TTL_MS - 1;
+        assertNotNull(cache.getFresh("contacts1"));
+        nowMs += 1;
+        assertNull(cache.getFresh("contacts1"));
+        DiscoveryCache.Entry stale = cache.get("contacts1");
+        assertEquals("\"etag1\"", stale.etag);
+
+        // flickr answered 304
+        DiscoveryCache.Entry entry = cache.revalidated("contacts1");
+        assertEquals("{}", entry.body);
+        assertEquals("\"etag1\"", entry.etag);
+        assertEquals(nowMs, entry.fetchTime);
+        assertSame(entry, cache.getFresh("contacts1"));
+        assertNull(cache.revalidated("contacts2"));
+    }
+
+    @Test
+    public void entriesFromTheFutureArentFresh() {
+        DiscoveryCache cache = makeCache();
+        cache.put("profile", "{}", null);
+        // the clock was set back
+        nowMs -= 1000;
+        assertNull(cache.getFresh("profile"));
+        assertNotNull(cache.get("profile"));
+    }
+
+    @Test
+    public void readsBackWhatWasSaved() throws Exception {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 100000) {
+            body.append("{\"nsid\":\"12037949754@N01\",\"realname\":\"b\u00e9th\"},");
+        }
+        DiscoveryCache cache = makeCache();
+        cache.put("contacts1", body.toString(), "\"etag1\"");
+        cache.put("profile", "{}", null);
+        cache.flush();
+
+        DiscoveryCache reloaded = makeCache();
+        DiscoveryCache.Entry contacts = reloaded.getFresh("contacts1");
+        assertEquals(body.toString(), contacts.body);
+        assertEquals("\"etag1\"", contacts.etag);
+        assertEquals(nowMs, contacts.fetchTime);
+        assertNull(reloaded.get("profile").etag);
+
+        reloaded.clear();
+        reloaded.flush();
+        assertNull(makeCache().get("contacts1"));
+    }
+
+    @Test
+    public void ignoresOtherVersion() throws Exception {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(99);
+        out.writeInt(0);
+        out.close();
+        assertNull(makeCache().get("profile"));
+    }
+
+    private DiscoveryCache makeCache() {
+        return new DiscoveryCache(file, TTL_MS) {
+            @Override
+            long now() {
+                return nowMs;
+            }
+        };
+    }
+}
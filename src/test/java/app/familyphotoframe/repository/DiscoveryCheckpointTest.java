@@ -0,0 +1,186 @@
+package app.familyphotoframe.repository;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+public class DiscoveryCheckpointTest {
+    private static final int NUM_CONTACTS = 10;
+    private static final int NUM_PHOTOS = 1000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("discovery", ".checkpoint");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readsBackWhatWasSaved() throws Exception {
+        DiscoveryCheckpoint.State state = makeState();
+        // values that don't pack are kept as they are
+        state.photos.add(new Photo("x123", "ABC", "server", "farm", state.contacts.get(0), null, new Date(0), "99999999999"));
+        state.timeOfSyncStart = 1500000100000L;
+        state.fullSyncInProgress = true;
+        state.contactsDoneInSync.add(state.contacts.get(1).getUserId());
+        state.syncStartByContact.put(state.contacts.get(2).getUserId(), 1500000100L);
+        state.pagesDoneByContact.put(state.contacts.get(2).getUserId(), 2);
+        state.photoIdsSeenInSync.add("48000000001");
+        state.photoIdsSeenInSync.add("x123");
+        save(file, state);
+
+        DiscoveryCheckpoint.State loaded = new DiscoveryCheckpoint(file, 0).load();
+        assertEquals(NUM_CONTACTS, loaded.contacts.size());
+        assertEquals(state.contacts.get(3).getName(), loaded.contacts.get(3).getName());
+        assertEquals(state.contacts.get(3).getRelationship(), loaded.contacts.get(3).getRelationship());
+        assertEquals(NUM_PHOTOS + 1, loaded.photos.size());
+        for (int ii : new int[] {0, 1, 2, NUM_PHOTOS - 1}) {
+            Photo expected = state.photos.get(ii);
+            Photo actual = loaded.photos.get(ii);
+            assertEquals(expected, actual);
+            assertEquals(expected.getSecret(), actual.getSecret());
+            assertEquals(expected.getServerId(), actual.getServerId());
+            assertEquals(expected.getFarmId(), actual.getFarmId());
+            assertEquals(expected.getOwner().getUserId(), actual.getOwner().getUserId());
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getDateTaken(), actual.getDateTaken());
+            assertEquals(expected.getWoeId(), actual.getWoeId());
+        }
+        // owners are the loaded contacts, not copies
+        assertSame(loaded.contacts.get(1), loaded.photos.get(1).getOwner());
+        Photo odd = loaded.photos.get(NUM_PHOTOS);
+        assertEquals("x123", odd.getId());
+        assertEquals("ABC", odd.getSecret());
+        assertNull(odd.getTitle());
+        assertEquals("99999999999", odd.getWoeId());
+
+        assertEquals(state.lastSyncByContact, loaded.lastSyncByContact);
+        assertEquals(state.timeOfLastFullSync, loaded.timeOfLastFullSync);
+        assertEquals(state.timeOfSyncStart, loaded.timeOfSyncStart);
+        assertTrue(loaded.fullSyncInProgress);
+        assertEquals(state.contactsDoneInSync, loaded.contactsDoneInSync);
+        assertEquals(state.syncStartByContact, loaded.syncStartByContact);
+        assertEquals(state.pagesDoneByContact, loaded.pagesDoneByContact);
+        assertEquals(state.photoIdsSeenInSync, loaded.photoIdsSeenInSync);
+    }
+
+    @Test
+    public void ignoresOldVersion() throws Exception {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(1);
+        out.writeInt(0);
+        out.close();
+        assertNull(new DiscoveryCheckpoint(file, 0).load());
+    }
+
+    @Test
+    public void ignoresTruncatedFile() throws Exception {
+        save(file, makeState());
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(truncated.length() / 2);
+        truncated.close();
+        assertNull(new DiscoveryCheckpoint(file, 0).load());
+    }
+
+    @Test
+    public void clearDeletesTheFile() throws Exception {
+        save(file, makeState());
+        DiscoveryCheckpoint checkpoint = new DiscoveryCheckpoint(file, 0);
+        checkpoint.clear();
+        checkpoint.flush();
+        assertFalse(file.exists());
+        assertNull(new DiscoveryCheckpoint(file, 0).load());
+    }
+
+    /**
+     * a discovery stopped partway, e.g. by the app being killed, carries on from its checkpoint
+     * in a new collection. contacts it had finished aren't fetched again, and the saved photos
+     * still count as seen by the full sync.
+     */
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        config.numContacts = 40;
+        config.latencyMs = 20;
+        int numUsers = config.numContacts + 1;
+        DiscoveryCheckpoint firstCheckpoint = new DiscoveryCheckpoint(file, 0);
+        DiscoveryDriver first = new DiscoveryDriver(firstCheckpoint, config);
+        try {
+            first.start();
+            while (first.server.getRequestCount("flickr.people.getPhotos") < numUsers / 2) {
+                Thread.sleep(5);
+            }
+            first.photoCollection.cancelDiscovery();
+            first.drain();
+            firstCheckpoint.flush();
+        } finally {
+            first.shutdown();
+        }
+        int numDone = new DiscoveryCheckpoint(file, 0).load().contactsDoneInSync.size();
+        assertTrue("some but not all contacts should be done, got " + numDone, numDone > 0 && numDone < numUsers);
+
+        DiscoveryCheckpoint secondCheckpoint = new DiscoveryCheckpoint(file, 0);
+        DiscoveryDriver second = new DiscoveryDriver(secondCheckpoint, config);
+        try {
+            DiscoveryDriver.Result result = second.run();
+            assertEquals(numUsers - numDone, second.getRequestCount("flickr.people.getPhotos"));
+            assertEquals(0, second.getRequestCount("flickr.photos.getContactsPhotos"));
+            assertEquals(numUsers * second.server.getNumShowablePhotos(), result.numPhotos);
+            secondCheckpoint.flush();
+        } finally {
+            second.shutdown();
+        }
+        DiscoveryCheckpoint.State saved = new DiscoveryCheckpoint(file, 0).load();
+        assertEquals("discovery should be finished", 0, saved.timeOfSyncStart);
+        assertTrue(saved.timeOfLastFullSync > 0);
+        assertEquals(numUsers * second.server.getNumShowablePhotos(), saved.photos.size());
+    }
+
+    private DiscoveryCheckpoint.State makeState() {
+        DiscoveryCheckpoint.State state = new DiscoveryCheckpoint.State();
+        for (int ii=0; ii<NUM_CONTACTS; ii++) {
+            state.contacts.add(new Contact(FakeFlickrServer.getContactUserId(ii), "user" + ii,
+                                           ii % 2 == 0 ? Relationship.FAMILY : Relationship.FRIEND));
+        }
+        for (int ii=0; ii<NUM_PHOTOS; ii++) {
+            long id = 48000000000L + ii;
+            // some secrets have leading zeroes
+            state.photos.add(new Photo(String.valueOf(id), String.format("%010x", id * 2654435761L & 0xfffffffffL),
+                                       String.valueOf(65535 - ii % 7), "66", state.contacts.get(ii % NUM_CONTACTS),
+                                       "IMG_" + ii, new Date(1400000000000L + ii * 60000L),
+                                       ii % 3 == 0 ? null : String.valueOf(2487956 + ii % 50)));
+        }
+        state.lastSyncByContact.put(state.contacts.get(0).getUserId(), 1500000000L);
+        state.timeOfLastFullSync = 1500000000000L;
+        return state;
+    }
+
+    /**
+     * write the state the way the collection has it saved
+     */
+    static void save(final File file, final DiscoveryCheckpoint.State state) throws Exception {
+        DiscoveryCheckpoint checkpoint = new DiscoveryCheckpoint(file, 0);
+        checkpoint.setSource(new DiscoveryCheckpoint.Source() {
+                public DiscoveryCheckpoint.State snapshot() {
+                    return state;
+                }
+            });
+        checkpoint.saveNow();
+        checkpoint.flush();
+    }
+}
@@ -0,0 +1,392 @@
+package app.familyphotoframe.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import app.familyphotoframe.PhotoFrameActivity;
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+/**
+ * runs discovery of a real PhotoCollection against FakeFlickrServer. with several configs, each
+ * one is an account with its own server and client.
+ *
+ * FlickrClient needs android, so it's replaced by a mock that returns the same futures:
+ * requests and decoding run on a small pool like loopj's, and futures complete one at a time on
+ * a single thread like the client's ingest executor. the request rate limit is left out.
+ */
+class DiscoveryDriver {
+    static final int MAX_CONCURRENT_REQUESTS = 4;
+    static final long TIMEOUT_SECS = 600;
+
+    /**
+     * what one discovery run measured
+     */
+    static class Result {
+        int numContacts;
+        int numPhotos;
+        int numRequests;
+        long msToFirstShow;
+        long msToComplete;
+        long heapBytes;
+
+        @Override
+        public String toString() {
+            return String.format("%6d contacts: %7d photos, %6d requests, first show %6d ms, complete %6d ms, heap %6d KB (%d B/photo)",
+                                 numContacts, numPhotos, numRequests, msToFirstShow, msToComplete,
+                                 heapBytes / 1024, numPhotos == 0 ? 0 : heapBytes / numPhotos);
+        }
+    }
+
+    final List<Account> accounts = new ArrayList<>();
+    /** the first account's server */
+    final FakeFlickrServer server;
+    final PhotoFrameActivity activity = mock(PhotoFrameActivity.class);
+    final PhotoCollection photoCollection;
+    final ExecutorService network = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS);
+    final ExecutorService ingest = Executors.newSingleThreadExecutor();
+    volatile CountDownLatch discoveryComplete;
+    final AtomicLong firstShowTime = new AtomicLong();
+    final AtomicInteger numCancelled = new AtomicInteger();
+    final AtomicInteger numProfilesFailed = new AtomicInteger();
+    volatile Throwable error;
+
+    DiscoveryDriver(final FakeFlickrServer.Config... configs) throws IOException {
+        this(null, configs);
+    }
+
+    /**
+     * @param checkpoint passed to the collection, or null
+     */
+    DiscoveryDriver(final DiscoveryCheckpoint checkpoint, final FakeFlickrServer.Config... configs) throws IOException {
+        List<FlickrClient> clients = new ArrayList<>();
+        for (FakeFlickrServer.Config config : configs) {
+            Account account = new Account(config);
+            accounts.add(account);
+            clients.add(account.flickr);
+        }
+        server = accounts.get(0).server;
+        photoCollection = new PhotoCollection(activity, clients, checkpoint);
+
+        doAnswer(new Answer<Void>() {
+                public Void answer(final InvocationOnMock invocation) {
+                    firstShowTime.compareAndSet(0, System.nanoTime());
+                    return null;
+                }
+            }).when(activity).startShow();
+    }
+
+    Result run() throws Exception {
+        long heapBefore = usedHeap();
+        final long start = System.nanoTime();
+        start();
+        assertTrue("discovery timed out", discoveryComplete.await(TIMEOUT_SECS, TimeUnit.SECONDS));
+        long end = System.nanoTime();
+        if (error != null) {
+            throw new AssertionError(error);
+        }
+
+        Result result = new Result();
+        result.numContacts = getRequestCount("flickr.people.getPhotos") == 0 ? 0 : countContacts();
+        result.numPhotos = photoCollection.getPhotos().size();
+        result.numRequests = getRequestCount("flickr.test.login") + getRequestCount("flickr.contacts.getList")
+            + getRequestCount("flickr.people.getPhotos") + getRequestCount("flickr.photos.getContactsPhotos");
+        result.msToFirstShow = TimeUnit.NANOSECONDS.toMillis(firstShowTime.get() - start);
+        result.msToComplete = TimeUnit.NANOSECONDS.toMillis(end - start);
+        result.heapBytes = usedHeap() - heapBefore;
+        return result;
+    }
+
+    void start() {
+        discoveryComplete = new CountDownLatch(1);
+        firstShowTime.set(0);
+        numProfilesFailed.set(0);
+        ingest.execute(new Runnable() {
+                public void run() {
+                    photoCollection.startDiscovery();
+                }
+            });
+    }
+
+    /**
+     * wait for every request that was started to be delivered
+     */
+    void drain() throws Exception {
+        network.shutdown();
+        assertTrue(network.awaitTermination(TIMEOUT_SECS, TimeUnit.SECONDS));
+        ingest.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+    }
+
+    void shutdown() {
+        network.shutdownNow();
+        ingest.shutdownNow();
+        for (Account account : accounts) {
+            account.server.stop();
+        }
+    }
+
+    /**
+     * @return requests for the method, summed over the accounts' servers
+     */
+    int getRequestCount(final String method) {
+        int count = 0;
+        for (Account account : accounts) {
+            count += account.server.getRequestCount(method);
+        }
+        return count;
+    }
+
+    private int countContacts() throws Exception {
+        Set<Contact> owners = new HashSet<>();
+        for (Photo photo : photoCollection.getPhotos()) {
+            if (photo.getOwner().getRelationship() != Relationship.SELF) {
+                owners.add(photo.getOwner());
+            }
+        }
+        return owners.size();
+    }
+
+    /**
+     * a future that counts its cancellation. the request itself isn't aborted, so its
+     * response still arrives and has to be ignored.
+     */
+    private <T> FlickrFuture<T> newFuture() {
+        FlickrFuture<T> future = new FlickrFuture<>();
+        future.setCanceller(new Runnable() {
+                public void run() {
+                    numCancelled.incrementAndGet();
+                }
+            });
+        return future;
+    }
+
+    interface Parser<T> {
+        T parse(JSONObject json) throws Exception;
+    }
+
+    /**
+     * one logged in account: a fake server and a client that talks to it
+     */
+    class Account {
+        final FakeFlickrServer server;
+        final FlickrClient flickr = mock(FlickrClient.class);
+
+        Account(final FakeFlickrServer.Config config) throws IOException {
+            server = new FakeFlickrServer(config);
+            server.start();
+            when(flickr.getAccount()).thenReturn("account" + accounts.size());
+
+            doAnswer(new Answer<FlickrFuture<Contact>>() {
+                    public FlickrFuture<Contact> answer(final InvocationOnMock invocation) {
+                        return lookupProfile();
+                    }
+                }).when(flickr).lookupProfile(anyBoolean());
+            doAnswer(new Answer<FlickrFuture<FlickrClient.ContactsPage>>() {
+                    public FlickrFuture<FlickrClient.ContactsPage> answer(final InvocationOnMock invocation) {
+                        return lookupContacts((Integer) invocation.getArguments()[1]);
+                    }
+                }).when(flickr).lookupContacts(anyBoolean(), anyInt());
+            doAnswer(new Answer<FlickrFuture<PhotosPageDecoder.PhotosPage>>() {
+                    public FlickrFuture<PhotosPageDecoder.PhotosPage> answer(final InvocationOnMock invocation) {
+                        return lookupPhotos((Contact) invocation.getArguments()[1], (Long) invocation.getArguments()[2],
+                                            (Integer) invocation.getArguments()[3]);
+                    }
+                }).when(flickr).lookupPhotos(any(PhotosPageDecoder.ContactLookup.class), any(Contact.class), anyLong(), anyInt());
+            doAnswer(new Answer<FlickrFuture<PhotosPageDecoder.PhotosPage>>() {
+                    public FlickrFuture<PhotosPageDecoder.PhotosPage> answer(final InvocationOnMock invocation) {
+                        return lookupRecentContactsPhotos((PhotosPageDecoder.OwnerLookup) invocation.getArguments()[0]);
+                    }
+                }).when(flickr).lookupRecentContactsPhotos(any(PhotosPageDecoder.OwnerLookup.class));
+            doAnswer(new Answer<Void>() {
+                    public Void answer(final InvocationOnMock invocation) {
+                        discoveryComplete.countDown();
+                        return null;
+                    }
+                }).when(flickr).dumpStatsToLog();
+        }
+
+        private FlickrFuture<Contact> lookupProfile() {
+            FlickrFuture<Contact> future = newFuture();
+            get("method=flickr.test.login", future, new Parser<Contact>() {
+                    public Contact parse(final JSONObject json) throws Exception {
+                        return DiscoveryResponseParser.parseProfile(json);
+                    }
+                }, new Runnable() {
+                    public void run() {
+                        // once every account has failed, nothing more will happen
+                        if (numProfilesFailed.incrementAndGet() == accounts.size()) {
+                            discoveryComplete.countDown();
+                        }
+                    }
+                });
+            return future;
+        }
+
+        private FlickrFuture<FlickrClient.ContactsPage> lookupContacts(final int page) {
+            FlickrFuture<FlickrClient.ContactsPage> future = newFuture();
+            get("method=flickr.contacts.getList&per_page=1000&page=" + page, future, new Parser<FlickrClient.ContactsPage>() {
+                    public FlickrClient.ContactsPage parse(final JSONObject json) throws Exception {
+                        return DiscoveryResponseParser.parseContactsPage(json, page);
+                    }
+                }, null);
+            return future;
+        }
+
+        /**
+         * like PhotosResponseHandler, the page is decoded on the network thread
+         */
+        private FlickrFuture<PhotosPageDecoder.PhotosPage> lookupPhotos(final Contact contact, final long minUploadDate,
+                                                                       final int page) {
+            return getPhotos("method=flickr.people.getPhotos&per_page=500&page=" + page + "&user_id=" + contact.getUserId()
+                             + (minUploadDate > 0 ? "&min_upload_date=" + minUploadDate : ""), photoCollection);
+        }
+
+        private FlickrFuture<PhotosPageDecoder.PhotosPage> lookupRecentContactsPhotos(final PhotosPageDecoder.OwnerLookup ownerLookup) {
+            return getPhotos("method=flickr.photos.getContactsPhotos&count=50&include_self=1", ownerLookup);
+        }
+
+        private FlickrFuture<PhotosPageDecoder.PhotosPage> getPhotos(final String query,
+                                                                    final PhotosPageDecoder.ContactLookup contactLookup) {
+            final FlickrFuture<PhotosPageDecoder.PhotosPage> future = newFuture();
+            network.execute(new Runnable() {
+                    public void run() {
+                        final PhotosPageDecoder.PhotosPage photosPage = fetchPhotos(query, contactLookup);
+                        ingest.execute(new Runnable() {
+                                public void run() {
+                                    if (photosPage == null || !photosPage.ok) {
+                                        future.fail(new IOException("photos request failed"));
+                                    } else {
+                                        future.complete(photosPage);
+                                    }
+                                }
+                            });
+                    }
+                });
+            return future;
+        }
+
+        /**
+         * @return the decoded page, or null if the request failed
+         */
+        private PhotosPageDecoder.PhotosPage fetchPhotos(final String query, final PhotosPageDecoder.ContactLookup contactLookup) {
+            try {
+                HttpURLConnection connection = open(query);
+                if (connection.getResponseCode() != 200) {
+                    connection.disconnect();
+                    return null;
+                }
+                InputStream in = connection.getInputStream();
+                try {
+                    return new PhotosPageDecoder(contactLookup).decode(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * fetch and parse on the network pool and complete the future on the ingest thread
+         *
+         * @param afterFailure run once the future's callbacks have handled a failure, or null
+         */
+        private <T> void get(final String query, final FlickrFuture<T> future, final Parser<T> parser,
+                             final Runnable afterFailure) {
+            network.execute(new Runnable() {
+                    public void run() {
+                        final byte[] body = fetch(query);
+                        T parsed = null;
+                        boolean ok = false;
+                        if (body != null) {
+                            try {
+                                // a stat=fail response fails the future, as in CacheableResponseHandler
+                                JSONObject json = new JSONObject(new String(body, "UTF-8"));
+                                ok = DiscoveryResponseParser.isOk(json);
+                                parsed = ok ? parser.parse(json) : null;
+                            } catch (Exception e) {
+                                error = e;
+                                discoveryComplete.countDown();
+                                return;
+                            }
+                        }
+                        final T result = parsed;
+                        final boolean succeeded = ok;
+                        ingest.execute(new Runnable() {
+                                public void run() {
+                                    if (succeeded) {
+                                        future.complete(result);
+                                        return;
+                                    }
+                                    future.fail(new IOException("request failed"));
+                                    if (afterFailure != null) {
+                                        afterFailure.run();
+                                    }
+                                }
+                            });
+                    }
+                });
+        }
+
+        /**
+         * @return the body, or null if the request failed
+         */
+        private byte[] fetch(final String query) {
+            try {
+                HttpURLConnection connection = open(query);
+                if (connection.getResponseCode() != 200) {
+                    connection.disconnect();
+                    return null;
+                }
+                InputStream in = connection.getInputStream();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, len);
+                }
+                in.close();
+                return out.toByteArray();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private HttpURLConnection open(final String query) throws IOException {
+            URL url = new URL(server.getRestUrl() + "?format=json&nojsoncallback=1&" + query);
+            return (HttpURLConnection) url.openConnection();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int ii=0; ii<3; ii++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
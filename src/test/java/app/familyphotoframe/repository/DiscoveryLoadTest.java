@@ -0,0 +1,62 @@
+package app.familyphotoframe.repository;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * runs a whole discovery of a real PhotoCollection against FakeFlickrServer, and measures how
+ * long it took and how much memory the collection holds afterwards. the request rate limit is
+ * left out, this measures the client's own costs.
+ */
+public class DiscoveryLoadTest {
+    private static final int PHOTOS_PER_CONTACT = 20;
+    private static final int LATENCY_MS = 1;
+
+    /** the 10k contact run takes minutes, so it only runs when asked for */
+    private static final String LARGE_RUN_PROPERTY = "loadtest.large";
+
+    /** print what each run measured */
+    private static final String REPORT_PROPERTY = "loadtest.report";
+
+    @Test
+    public void discover10Contacts() throws Exception {
+        checkResult(runDiscovery(10));
+    }
+
+    @Test
+    public void discover1000Contacts() throws Exception {
+        checkResult(runDiscovery(1000));
+    }
+
+    @Test
+    public void discover10000Contacts() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean(LARGE_RUN_PROPERTY));
+        checkResult(runDiscovery(10000));
+    }
+
+    private DiscoveryDriver.Result runDiscovery(final int numContacts) throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        config.numContacts = numContacts;
+        config.photosPerContact = PHOTOS_PER_CONTACT;
+        config.latencyMs = LATENCY_MS;
+        DiscoveryDriver driver = new DiscoveryDriver(config);
+        try {
+            DiscoveryDriver.Result result = driver.run();
+            if (Boolean.getBoolean(REPORT_PROPERTY)) {
+                System.out.println(result);
+            }
+            assertEquals((numContacts + 1) * driver.server.getNumShowablePhotos(), result.numPhotos);
+            PhotoCollection.DiscoveryProgress progress = driver.photoCollection.getDiscoveryProgress();
+            assertFalse(progress.inProgress);
+            assertEquals(numContacts + 1, progress.numContributors);
+            assertEquals(result.numPhotos, progress.numPhotos);
+            return result;
+        } finally {
+            driver.shutdown();
+        }
+    }
+
+    private void checkResult(final DiscoveryDriver.Result result) {
+        assertTrue(result.msToFirstShow <= result.msToComplete);
+    }
+}
@@ -0,0 +1,63 @@
+package app.familyphotoframe.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Relationship;
+
+public class DiscoveryResponseParserTest {
+
+    @Test
+    public void parsesProfile() throws Exception {
+        JSONObject json = new JSONObject("{\"user\":{\"id\":\"1@N00\",\"username\":{\"_content\":\"me\"}},\"stat\":\"ok\"}");
+        assertTrue(DiscoveryResponseParser.isOk(json));
+        Contact self = DiscoveryResponseParser.parseProfile(json);
+        assertEquals("1@N00", self.getUserId());
+        assertEquals(Relationship.SELF, self.getRelationship());
+    }
+
+    @Test
+    public void parsesContactsPage() throws Exception {
+        JSONObject json = new JSONObject("{\"contacts\":{\"page\":2,\"pages\":3,\"contact\":["
+                                         + "{\"nsid\":\"2@N00\",\"username\":\"two\",\"realname\":\"Two Real\",\"family\":1,\"friend\":1},"
+                                         + "{\"nsid\":\"3@N00\",\"username\":\"three\",\"realname\":\"\",\"family\":0,\"friend\":1},"
+                                         + "{\"nsid\":\"4@N00\",\"username\":\"four\",\"realname\":\"\",\"family\":0,\"friend\":0}"
+                                         + "]},\"stat\":\"ok\"}");
+        FlickrClient.ContactsPage page = DiscoveryResponseParser.parseContactsPage(json, 2);
+        assertEquals(2, page.page);
+        assertEquals(3, page.numPages);
+        assertFalse(page.isLastPage());
+
+        Map<String, Contact> byId = new HashMap<>();
+        for (Contact contact : page.contacts) {
+            byId.put(contact.getUserId(), contact);
+        }
+        assertEquals(3, byId.size());
+        assertEquals("Two Real", byId.get("2@N00").getName());
+        assertEquals("family wins over friend", Relationship.FAMILY, byId.get("2@N00").getRelationship());
+        assertEquals("falls back to the user name", "three", byId.get("3@N00").getName());
+        assertEquals(Relationship.FRIEND, byId.get("3@N00").getRelationship());
+        assertEquals(Relationship.STRANGER, byId.get("4@N00").getRelationship());
+    }
+
+    @Test
+    public void emptyContactListIsTheLastPage() throws Exception {
+        JSONObject json = new JSONObject("{\"contacts\":{\"page\":1,\"pages\":0,\"total\":0},\"stat\":\"ok\"}");
+        FlickrClient.ContactsPage page = DiscoveryResponseParser.parseContactsPage(json, 1);
+        assertTrue(page.contacts.isEmpty());
+        assertTrue(page.isLastPage());
+    }
+
+    @Test
+    public void recognizesErrors() throws Exception {
+        JSONObject json = new JSONObject("{\"stat\":\"fail\",\"code\":98,\"message\":\"Invalid auth token\"}");
+        assertFalse(DiscoveryResponseParser.isOk(json));
+        assertEquals("Invalid auth token", DiscoveryResponseParser.getErrorMessage(json));
+    }
+}
@@ -0,0 +1,323 @@
+package app.familyphotoframe.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * a local stand-in for the flickr rest api, serving synthetic data.
+ *
+ * implements flickr.test.login, flickr.contacts.getList, flickr.people.getPhotos (with paging
+ * and min_upload_date), flickr.photos.getContactsPhotos and flickr.places.getInfo. the data is
+ * generated from the seed, so the same config always serves the same responses, and a photo is
+ * the same in every listing it's in. responses are gzipped if the client asks, and
+ * connections are kept alive.
+ */
+public class FakeFlickrServer {
+    public static final String REST_PATH = "/services/rest";
+    public static final String SELF_USER_ID = "0@N00";
+
+    /** one photo in this many is a video, which the client should skip */
+    private static final int VIDEO_EVERY = 20;
+
+    /** one photo in this many has no woeid */
+    private static final int NO_WOEID_EVERY = 3;
+
+    private static final int NUM_PLACES = 200;
+
+    /** photos are uploaded one day apart, ending at this unix time */
+    private static final long LATEST_UPLOAD = 1560000000L;
+    private static final long UPLOAD_INTERVAL = 24 * 60 * 60;
+
+    /**
+     * server settings
+     */
+    public static class Config {
+        /** the logged in user */
+        public String selfUserId = SELF_USER_ID;
+        /** contacts of the logged in user */
+        public int numContacts = 10;
+        /** index of the first contact, so servers standing in for different accounts can share contacts */
+        public int firstContact = 0;
+        /** if not 0, one contact in this many is neither friend nor family */
+        public int strangerEvery = 0;
+        /** photos of each contact, and of the logged in user */
+        public int photosPerContact = 20;
+        /** added to every response */
+        public int latencyMs = 0;
+        /** added to responses of one method, on top of latencyMs */
+        public Map<String,Integer> extraLatencyMsByMethod = new HashMap<>();
+        /** fraction of requests that get a 503 */
+        public double errorRate = 0;
+        public long seed = 1;
+    }
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String,AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final Random errorRandom;
+
+    public FakeFlickrServer(final Config config) throws IOException {
+        this.config = config;
+        errorRandom = new Random(config.seed);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(REST_PATH, new HttpHandler() {
+                public void handle(final HttpExchange exchange) throws IOException {
+                    try {
+                        serve(exchange);
+                    } finally {
+                        exchange.close();
+                    }
+                }
+            });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the url to send rest requests to
+     */
+    public String getRestUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + REST_PATH;
+    }
+
+    /**
+     * @return requests received for the method, including failed ones
+     */
+    public int getRequestCount(final String method) {
+        AtomicInteger count = requestCounts.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @return photos of one user that a client should keep
+     */
+    public int getNumShowablePhotos() {
+        int numVideos = (config.photosPerContact + VIDEO_EVERY - 1) / VIDEO_EVERY;
+        return config.photosPerContact - numVideos;
+    }
+
+    public static String getContactUserId(final int index) {
+        return (index + 1) + "@N01";
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException {
+        Map<String,String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String method = params.get("method");
+        AtomicInteger count = requestCounts.get(String.valueOf(method));
+        if (count == null) {
+            requestCounts.putIfAbsent(String.valueOf(method), new AtomicInteger());
+            count = requestCounts.get(String.valueOf(method));
+        }
+        count.incrementAndGet();
+
+        Integer extraLatencyMs = config.extraLatencyMsByMethod.get(String.valueOf(method));
+        int latencyMs = config.latencyMs + (extraLatencyMs == null ? 0 : extraLatencyMs);
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (config.errorRate > 0 && nextErrorDraw() < config.errorRate) {
+            errorCount.incrementAndGet();
+            send(exchange, 503, "Service Unavailable", false);
+            return;
+        }
+
+        String body;
+        if ("flickr.test.login".equals(method)) {
+            body = "{\"user\":{\"id\":\"" + config.selfUserId + "\",\"username\":{\"_content\":\"me\"}},\"stat\":\"ok\"}";
+        } else if ("flickr.contacts.getList".equals(method)) {
+            body = contactsPage(intParam(params, "page", 1), intParam(params, "per_page", 1000));
+        } else if ("flickr.people.getPhotos".equals(method)) {
+            body = photosPage(params.get("user_id"), intParam(params, "page", 1), intParam(params, "per_page", 100),
+                              Long.parseLong(params.containsKey("min_upload_date") ? params.get("min_upload_date") : "0"));
+        } else if ("flickr.photos.getContactsPhotos".equals(method)) {
+            body = contactsPhotos(Math.min(50, intParam(params, "count", 10)), intParam(params, "include_self", 0) == 1);
+        } else if ("flickr.places.getInfo".equals(method)) {
+            body = "{\"place\":{\"woeid\":\"" + params.get("woe_id") + "\",\"woe_name\":\"Place "
+                + params.get("woe_id") + "\"},\"stat\":\"ok\"}";
+        } else {
+            body = "{\"stat\":\"fail\",\"code\":112,\"message\":\"Method \\\"" + method + "\\\" not found\"}";
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        send(exchange, 200, body, acceptEncoding != null && acceptEncoding.contains("gzip"));
+    }
+
+    private String contactsPage(final int page, final int perPage) {
+        int numPages = Math.max(1, (config.numContacts + perPage - 1) / perPage);
+        StringBuilder body = new StringBuilder();
+        body.append("{\"contacts\":{\"page\":").append(page).append(",\"pages\":").append(numPages)
+            .append(",\"perpage\":").append(perPage).append(",\"total\":").append(config.numContacts)
+            .append(",\"contact\":[");
+        int end = config.firstContact + Math.min(config.numContacts, page * perPage);
+        for (int ii=config.firstContact+(page-1)*perPage; ii<end; ii++) {
+            if (ii > config.firstContact+(page-1)*perPage) {
+                body.append(',');
+            }
+            boolean family = ii % 4 == 0;
+            boolean stranger = config.strangerEvery > 0 && ii % config.strangerEvery == config.strangerEvery - 1;
+            body.append("{\"nsid\":\"").append(getContactUserId(ii)).append("\",\"username\":\"user").append(ii)
+                .append("\",\"iconserver\":\"0\",\"iconfarm\":0,\"ignored\":0,\"rev_ignored\":0")
+                .append(",\"realname\":\"").append(ii % 5 == 0 ? "" : "Contact " + ii)
+                .append("\",\"friend\":").append(family || stranger ? 0 : 1)
+                .append(",\"family\":").append(family && !stranger ? 1 : 0)
+                .append(",\"path_alias\":null,\"location\":\"\"}");
+        }
+        body.append("]},\"stat\":\"ok\"}");
+        return body.toString();
+    }
+
+    /**
+     * photos are numbered newest upload first, so min_upload_date cuts off the tail of the list
+     */
+    private String photosPage(final String userId, final int page, final int perPage, final long minUploadDate) {
+        int numPhotos = config.photosPerContact;
+        if (minUploadDate > 0) {
+            numPhotos = (int) Math.max(0, Math.min(numPhotos, (LATEST_UPLOAD - minUploadDate) / UPLOAD_INTERVAL + 1));
+        }
+        int numPages = Math.max(1, (numPhotos + perPage - 1) / perPage);
+        StringBuilder body = new StringBuilder();
+        body.append("{\"photos\":{\"page\":").append(page).append(",\"pages\":").append(numPages)
+            .append(",\"perpage\":").append(perPage).append(",\"total\":").append(numPhotos)
+            .append(",\"photo\":[");
+        int end = Math.min(numPhotos, page * perPage);
+        for (int ii=(page-1)*perPage; ii<end; ii++) {
+            if (ii > (page-1)*perPage) {
+                body.append(',');
+            }
+            appendPhoto(body, userId, ii, false);
+        }
+        body.append("]},\"stat\":\"ok\"}");
+        return body.toString();
+    }
+
+    /**
+     * the latest photos across contacts, taking each user's newest photos in turn. a single
+     * page, with the owner's username in each photo like flickr's.
+     */
+    private String contactsPhotos(final int count, final boolean includeSelf) {
+        int numUsers = config.numContacts + (includeSelf ? 1 : 0);
+        int numPhotos = Math.min(count, numUsers * config.photosPerContact);
+        StringBuilder body = new StringBuilder();
+        body.append("{\"photos\":{\"photo\":[");
+        for (int ii=0; ii<numPhotos; ii++) {
+            if (ii > 0) {
+                body.append(',');
+            }
+            int userIndex = ii % numUsers;
+            String userId = includeSelf && userIndex == config.numContacts ? config.selfUserId
+                : getContactUserId(config.firstContact + userIndex);
+            appendPhoto(body, userId, ii / numUsers, true);
+        }
+        body.append("]},\"stat\":\"ok\"}");
+        return body.toString();
+    }
+
+    /**
+     * @param index the photo's place in the user's list, newest first
+     */
+    private void appendPhoto(final StringBuilder body, final String userId, final int index, final boolean withUsername) {
+        long userIndex = Long.parseLong(userId.substring(0, userId.indexOf('@')));
+        long id = userIndex * 100000 + index;
+        Random random = new Random(config.seed ^ id);
+        body.append("{\"id\":\"").append(id).append("\",\"owner\":\"").append(userId);
+        if (withUsername) {
+            body.append("\",\"username\":\"").append(userId.equals(config.selfUserId) ? "me" : "user" + (userIndex - 1));
+        }
+        body.append("\",\"secret\":\"").append(Long.toHexString(random.nextLong() | Long.MIN_VALUE).substring(0, 10))
+            .append("\",\"server\":\"65535\",\"farm\":66,\"title\":\"")
+            .append(index % 2 == 0 ? "IMG_" + id : "Photo " + index + " of " + userId)
+            .append("\",\"ispublic\":0,\"isfriend\":1,\"isfamily\":1")
+            .append(",\"datetaken\":\"").append(2000 + random.nextInt(20)).append('-')
+            .append(pad(1 + random.nextInt(12))).append('-').append(pad(1 + random.nextInt(28))).append(' ')
+            .append(pad(random.nextInt(24))).append(':').append(pad(random.nextInt(60))).append(':')
+            .append(pad(random.nextInt(60))).append("\",\"datetakengranularity\":0,\"datetakenunknown\":0")
+            .append(",\"originalformat\":\"").append(index % VIDEO_EVERY == 0 ? "mov" : "jpg").append('"');
+        if (index % NO_WOEID_EVERY != 0) {
+            body.append(",\"latitude\":\"45.5\",\"longitude\":\"-122.6\",\"accuracy\":\"16\"")
+                .append(",\"woeid\":\"").append(2400000 + random.nextInt(NUM_PLACES)).append('"');
+        } else {
+            body.append(",\"latitude\":0,\"longitude\":0,\"accuracy\":0");
+        }
+        body.append('}');
+    }
+
+    private double nextErrorDraw() {
+        synchronized (errorRandom) {
+            return errorRandom.nextDouble();
+        }
+    }
+
+    private static String pad(final int value) {
+        return value < 10 ? "0" + value : String.valueOf(value);
+    }
+
+    private static int intParam(final Map<String,String> params, final String name, final int defaultValue) {
+        return params.containsKey(name) ? Integer.parseInt(params.get(name)) : defaultValue;
+    }
+
+    private static Map<String,String> parseQuery(final String query) throws IOException {
+        Map<String,String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq+1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String body, final boolean gzip)
+        throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(compressed);
+            out.write(bytes);
+            out.close();
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
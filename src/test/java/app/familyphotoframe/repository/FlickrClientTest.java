@@ -0,0 +1,93 @@
+package app.familyphotoframe.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import cz.msebera.android.httpclient.client.HttpResponseException;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Relationship;
+
+public class FlickrClientTest {
+    private static final int NUM_TASKS = 1000;
+    private static final long TIMEOUT_SECS = 10;
+
+    /**
+     * with the ingest thread busy and many tasks waiting, a new task still waits its turn instead
+     * of running on the thread that handed it over, which may be the ui thread
+     */
+    @Test
+    public void ingestNeverRunsOnTheSubmittingThread() throws Exception {
+        ThreadPoolExecutor ingestExecutor = FlickrClient.newIngestExecutor(Executors.defaultThreadFactory());
+        try {
+            final Thread submitter = Thread.currentThread();
+            final CountDownLatch busy = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(NUM_TASKS);
+            final AtomicInteger numOnSubmitter = new AtomicInteger();
+            ingestExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            busy.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            for (int ii=0; ii<NUM_TASKS; ii++) {
+                ingestExecutor.execute(new Runnable() {
+                        public void run() {
+                            if (Thread.currentThread() == submitter) {
+                                numOnSubmitter.incrementAndGet();
+                            }
+                            done.countDown();
+                        }
+                    });
+            }
+            assertEquals("nothing runs while the ingest thread is busy", NUM_TASKS, done.getCount());
+
+            busy.countDown();
+            assertTrue(done.await(TIMEOUT_SECS, TimeUnit.SECONDS));
+            assertEquals(0, numOnSubmitter.get());
+        } finally {
+            ingestExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * a page that arrived but doesn't decode will be the same next time, so it's not retried
+     */
+    @Test
+    public void undecodableBodyIsNotTransient() throws Exception {
+        final Contact owner = new Contact("1@N00", "one", Relationship.FAMILY);
+        PhotosPageDecoder decoder = new PhotosPageDecoder(new PhotosPageDecoder.ContactLookup() {
+                public Contact getContact(final String userId) {
+                    return owner;
+                }
+            });
+        Exception decodeError = null;
+        try {
+            decoder.decode(new ByteArrayInputStream("{\"photos\":{\"photo\":[{\"id\" \"1\"}]}}".getBytes("UTF-8")));
+        } catch (Exception e) {
+            decodeError = e;
+        }
+        assertTrue("gson reports it as an IOException: " + decodeError, decodeError instanceof IOException);
+        assertFalse(FlickrClient.isTransient(200, decodeError));
+        assertFalse(FlickrClient.isTransient(200, new IllegalStateException()));
+        assertFalse(FlickrClient.isTransient(200, new NumberFormatException()));
+        assertFalse(FlickrClient.isTransient(404, new HttpResponseException(404, "Not Found")));
+
+        assertTrue(FlickrClient.isTransient(200, new EOFException()));
+        assertTrue(FlickrClient.isTransient(RequestMetrics.NO_RESPONSE, new SocketTimeoutException()));
+        assertTrue(FlickrClient.isTransient(503, new HttpResponseException(503, "Service Unavailable")));
+    }
+}
@@ -0,0 +1,59 @@
+package app.familyphotoframe.repository;
+
+import com.loopj.android.http.AsyncHttpClient;
+import cz.msebera.android.httpclient.HttpResponse;
+import cz.msebera.android.httpclient.client.HttpClient;
+import cz.msebera.android.httpclient.client.methods.HttpGet;
+import cz.msebera.android.httpclient.util.EntityUtils;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class HttpTransportTest {
+    private static final int NUM_REQUESTS = 10;
+
+    private FakeFlickrServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        config.photosPerContact = 500;
+        server = new FakeFlickrServer(config);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * back to back requests share one connection, and photo pages arrive compressed. the
+     * requests are sent straight through loopj's http client, with its interceptors.
+     */
+    @Test
+    public void reusesConnectionsAndCountsCompressedBytes() throws Exception {
+        AsyncHttpClient client = new AsyncHttpClient();
+        HttpTransport transport = new HttpTransport(4, 5000, 5000, 30000);
+        transport.install(client);
+        HttpClient httpClient = client.getHttpClient();
+
+        long sumOfResponseWireBytes = 0;
+        for (int ii=0; ii<NUM_REQUESTS; ii++) {
+            HttpResponse response = httpClient.execute(new HttpGet(server.getRestUrl()
+                                                                   + "?method=flickr.people.getPhotos&per_page=500&user_id="
+                                                                   + FakeFlickrServer.getContactUserId(ii)));
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertTrue(EntityUtils.toString(response.getEntity()).endsWith("\"stat\":\"ok\"}"));
+            sumOfResponseWireBytes += transport.getWireBytes(response);
+        }
+
+        assertEquals(NUM_REQUESTS, transport.getNumRequests());
+        assertEquals(NUM_REQUESTS - 1, transport.getNumReusedConnections());
+        assertTrue(transport.getWireBytes() > 0);
+        assertEquals(transport.getWireBytes(), sumOfResponseWireBytes);
+        assertTrue("expected at least 3x compression, got " + transport.getWireBytes() + " -> " + transport.getDecodedBytes(),
+                   transport.getWireBytes() * 3 < transport.getDecodedBytes());
+        httpClient.getConnectionManager().shutdown();
+    }
+}
@@ -0,0 +1,346 @@
+package app.familyphotoframe.repository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import app.familyphotoframe.PhotoFrameActivity;
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+public class PhotoCollectionTest {
+    private static final int NUM_SAVED_CONTACTS = 4;
+    private static final int NUM_SAVED_PHOTOS_PER_CONTACT = 5;
+    private static final long TIMEOUT_MS = 5000;
+
+    private static final int INGEST_PAGES = 400;
+    private static final int INGEST_PAGE_SIZE = 500;
+    private static final int INGEST_THREADS = 8;
+    private static final int INGEST_WARMUP_ITERATIONS = 3;
+    private static final long INGEST_TIMEOUT_MS = 600000;
+
+    private PhotoCollection photoCollection;
+
+    @Before
+    public void setUp() {
+        photoCollection = new PhotoCollection(mock(PhotoFrameActivity.class), new ArrayList<FlickrClient>());
+    }
+
+    @Test
+    public void addsOwnersItDoesntHoldYet() throws Exception {
+        Contact owner = new Contact("1@N00", "one", Relationship.FAMILY);
+        // the same user as a different object, e.g. decoded by another account's client
+        Contact sameUser = new Contact("1@N00", "one", Relationship.FAMILY);
+        Contact other = new Contact("2@N00", "two", Relationship.FRIEND);
+
+        photoCollection.addPhotos(Arrays.asList(makePhoto("1", owner), makePhoto("2", other)));
+        photoCollection.addPhoto(makePhoto("3", sameUser));
+
+        assertSame(owner, photoCollection.getContact("1@N00"));
+        assertSame(other, photoCollection.getContact("2@N00"));
+        assertSame(owner, photoCollection.getPhotos().get(2).getOwner());
+        assertEquals(2, photoCollection.getDiscoveryProgress().numContributors);
+        assertEquals(3, photoCollection.getDiscoveryProgress().numPhotos);
+    }
+
+    /**
+     * a page goes in as one new snapshot. snapshots taken before it don't change, and photos the
+     * collection already holds are skipped.
+     */
+    @Test
+    public void addsAPageInOneSnapshot() throws Exception {
+        Contact owner = new Contact("1@N00", "one", Relationship.FAMILY);
+        photoCollection.addPhotos(Arrays.asList(makePhoto("1", owner), makePhoto("2", owner)));
+        PhotoGeneration before = photoCollection.getPhotoGeneration();
+
+        photoCollection.addPhotos(Arrays.asList(makePhoto("3", owner), makePhoto("2", owner), makePhoto("4", owner),
+                                                makePhoto("3", owner)));
+        PhotoGeneration after = photoCollection.getPhotoGeneration();
+        assertEquals(2, before.size());
+        assertEquals(4, after.size());
+        assertEquals("still the same generation", before.getId(), after.getId());
+        List<Photo> added = after.getPhotosSince(before.size());
+        assertEquals(2, added.size());
+        assertEquals("3", added.get(0).getId());
+        assertEquals("4", added.get(1).getId());
+
+        // nothing new, nothing published
+        photoCollection.addPhotos(Arrays.asList(makePhoto("1", owner), makePhoto("4", owner)));
+        assertSame(after, photoCollection.getPhotoGeneration());
+        assertEquals(4, photoCollection.getDiscoveryProgress().numPhotos);
+    }
+
+    /**
+     * a saved collection is enough to start the show, so it doesn't wait on flickr
+     */
+    @Test
+    public void startsShowFromCheckpointBeforeAnyResponse() throws Exception {
+        DiscoveryCheckpoint.State state = new DiscoveryCheckpoint.State();
+        for (int ii=0; ii<NUM_SAVED_CONTACTS; ii++) {
+            Contact contact = new Contact(FakeFlickrServer.getContactUserId(ii), "user" + ii, Relationship.FAMILY);
+            state.contacts.add(contact);
+            for (int jj=0; jj<NUM_SAVED_PHOTOS_PER_CONTACT; jj++) {
+                state.photos.add(makePhoto(ii + "0" + jj, contact));
+            }
+        }
+        state.timeOfLastFullSync = new Date().getTime();
+        File file = File.createTempFile("discovery", ".checkpoint");
+        try {
+            DiscoveryCheckpointTest.save(file, state);
+            PhotoFrameActivity activity = mock(PhotoFrameActivity.class);
+            FlickrClient flickr = mock(FlickrClient.class);
+            // flickr never answers
+            FlickrFuture<Contact> profile = new FlickrFuture<>();
+            when(flickr.lookupProfile(anyBoolean())).thenReturn(profile);
+            photoCollection = new PhotoCollection(activity, flickr, new DiscoveryCheckpoint(file, 0));
+
+            photoCollection.startDiscovery();
+
+            verify(activity, timeout(TIMEOUT_MS)).startShow();
+            verify(flickr).lookupProfile(anyBoolean());
+            assertFalse(profile.isDone());
+            assertEquals(state.photos.size(), photoCollection.getPhotos().size());
+            assertTrue(photoCollection.getDiscoveryProgress().inProgress);
+            photoCollection.cancelDiscovery();
+            assertTrue(profile.isCancelled());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * with some requests failing, discovery still finishes with whatever arrived
+     */
+    @Test
+    public void completesDespitePhotoErrors() throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        config.numContacts = 50;
+        config.errorRate = 0.1;
+        DiscoveryDriver driver = new DiscoveryDriver(config);
+        try {
+            DiscoveryDriver.Result result = driver.run();
+            assertTrue(result.numPhotos <= (config.numContacts + 1) * driver.server.getNumShowablePhotos());
+        } finally {
+            driver.shutdown();
+        }
+    }
+
+    /**
+     * a sync that can't reach flickr keeps the photos from the last one
+     */
+    @Test
+    public void keepsPhotosWhenSyncFails() throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        DiscoveryDriver driver = new DiscoveryDriver(config);
+        try {
+            int numPhotos = driver.run().numPhotos;
+            config.errorRate = 1;
+            driver.run();
+            assertFalse(driver.photoCollection.hasDiscoveryFailed());
+            assertEquals(numPhotos, driver.photoCollection.getPhotos().size());
+        } finally {
+            driver.shutdown();
+        }
+    }
+
+    /**
+     * an empty collection starts the show from the recent photos of all contacts, without
+     * waiting for any per-contact listing
+     */
+    @Test
+    public void startsFromRecentPhotos() throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        config.numContacts = 8;
+        config.extraLatencyMsByMethod.put("flickr.people.getPhotos", 1000);
+        DiscoveryDriver driver = new DiscoveryDriver(config);
+        try {
+            DiscoveryDriver.Result result = driver.run();
+            assertTrue("show should start before the listings are in, took " + result.msToFirstShow + " ms",
+                       result.msToFirstShow < 1000);
+            assertEquals(1, driver.server.getRequestCount("flickr.photos.getContactsPhotos"));
+            assertEquals((config.numContacts + 1) * driver.server.getNumShowablePhotos(), result.numPhotos);
+            // owners first seen in the recent photos were filled in from the contact list
+            Contact familyContact = driver.photoCollection.getContact(FakeFlickrServer.getContactUserId(0));
+            assertEquals(Relationship.FAMILY, familyContact.getRelationship());
+            for (Photo photo : driver.photoCollection.getPhotos()) {
+                assertSame(driver.photoCollection.getContact(photo.getOwner().getUserId()), photo.getOwner());
+            }
+        } finally {
+            driver.shutdown();
+        }
+    }
+
+    /**
+     * strangers' photos are never shown, so they aren't fetched, and friends' listings are cut
+     * off sooner than family's
+     */
+    @Test
+    public void fetchesInProportionToLikelihood() throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        config.numContacts = 10;
+        config.strangerEvery = 5;
+        config.photosPerContact = 1500;
+        DiscoveryDriver driver = new DiscoveryDriver(config);
+        try {
+            driver.run();
+            // self and family (0 and 8) get all 3 pages, friends 2, strangers (4 and 9) none
+            assertEquals(3 + 2*3 + 6*2, driver.server.getRequestCount("flickr.people.getPhotos"));
+            for (Photo photo : driver.photoCollection.getPhotos()) {
+                assertNotEquals(Relationship.STRANGER, photo.getOwner().getRelationship());
+            }
+            // strangers' recent photos were dropped from the counts too
+            assertEquals(11 - 2, driver.photoCollection.getDiscoveryProgress().numContributors);
+        } finally {
+            driver.shutdown();
+        }
+    }
+
+    /**
+     * two accounts that share some contacts discover into one collection, and the shared
+     * contacts are only fetched once
+     */
+    @Test
+    public void federatesAccounts() throws Exception {
+        FakeFlickrServer.Config first = new FakeFlickrServer.Config();
+        first.numContacts = 10;
+        FakeFlickrServer.Config second = new FakeFlickrServer.Config();
+        second.selfUserId = "90000@N00";
+        second.firstContact = 5;
+        second.numContacts = 10;
+        DiscoveryDriver driver = new DiscoveryDriver(first, second);
+        try {
+            DiscoveryDriver.Result result = driver.run();
+            // both users, and contacts 0-14 with 5-9 shared
+            int numUsers = 2 + 15;
+            assertEquals(numUsers, driver.getRequestCount("flickr.people.getPhotos"));
+            assertEquals(numUsers * driver.server.getNumShowablePhotos(), result.numPhotos);
+            assertEquals(Relationship.SELF, driver.photoCollection.getContact(FakeFlickrServer.SELF_USER_ID).getRelationship());
+            assertEquals(Relationship.SELF, driver.photoCollection.getContact(second.selfUserId).getRelationship());
+        } finally {
+            driver.shutdown();
+        }
+    }
+
+    /**
+     * cancelling a discovery cancels its requests, and responses already on their way don't
+     * touch the collection
+     */
+    @Test
+    public void cancelIgnoresLateResponses() throws Exception {
+        FakeFlickrServer.Config config = new FakeFlickrServer.Config();
+        config.numContacts = 100;
+        config.latencyMs = 20;
+        DiscoveryDriver driver = new DiscoveryDriver(config);
+        try {
+            driver.start();
+            while (driver.server.getRequestCount("flickr.people.getPhotos") < DiscoveryDriver.MAX_CONCURRENT_REQUESTS * 2) {
+                Thread.sleep(5);
+            }
+            driver.photoCollection.cancelDiscovery();
+            int numPhotos = driver.photoCollection.getPhotosAddedSince(0).size();
+            driver.drain();
+            assertTrue(driver.numCancelled.get() > 0);
+            assertEquals(numPhotos, driver.photoCollection.getPhotosAddedSince(0).size());
+            assertEquals("discovery shouldn't complete", 1, driver.discoveryComplete.getCount());
+        } finally {
+            driver.shutdown();
+        }
+    }
+
+    /**
+     * clients keep cached responses by account, so two for one account would clobber each other
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTwoClientsOfOneAccount() {
+        FlickrClient first = mock(FlickrClient.class);
+        FlickrClient second = mock(FlickrClient.class);
+        when(first.getAccount()).thenReturn(FlickrClient.DEFAULT_ACCOUNT);
+        when(second.getAccount()).thenReturn(FlickrClient.DEFAULT_ACCOUNT);
+        new PhotoCollection(mock(PhotoFrameActivity.class), Arrays.asList(first, second));
+    }
+
+    /**
+     * compare taking in pages of photos from many threads at once, a page at a time against a
+     * photo at a time, which locked and published a new snapshot for each photo
+     */
+    @Test
+    public void benchmarkBatchIngest() throws Exception {
+        Benchmarks.assumeEnabled();
+        final List<List<Photo>> pages = new ArrayList<>();
+        for (int ii=0; ii<INGEST_PAGES; ii++) {
+            Contact owner = new Contact(FakeFlickrServer.getContactUserId(ii), "user" + ii, Relationship.FRIEND);
+            List<Photo> page = new ArrayList<>();
+            for (int jj=0; jj<INGEST_PAGE_SIZE; jj++) {
+                long id = 48000000000L + ii * INGEST_PAGE_SIZE + jj;
+                page.add(new Photo(String.valueOf(id), Long.toHexString(id), "65535", "66", owner, "", new Date(), null));
+            }
+            pages.add(page);
+        }
+
+        for (int ii=0; ii<INGEST_WARMUP_ITERATIONS; ii++) {
+            ingest(pages, false);
+            ingest(pages, true);
+        }
+        long perPhotoNanos = ingest(pages, false);
+        long batchNanos = ingest(pages, true);
+
+        int numPhotos = INGEST_PAGES * INGEST_PAGE_SIZE;
+        System.out.println(String.format("%d pages of %d photos on %d threads", INGEST_PAGES, INGEST_PAGE_SIZE, INGEST_THREADS));
+        System.out.println(String.format("per photo: %10.0f photos/s", numPhotos * 1e9 / perPhotoNanos));
+        System.out.println(String.format("per page:  %10.0f photos/s", numPhotos * 1e9 / batchNanos));
+        assertTrue("adding a page at a time should be faster", batchNanos < perPhotoNanos);
+    }
+
+    /**
+     * @return nanos to add all the pages to a new collection, spread over the ingest threads
+     */
+    private long ingest(final List<List<Photo>> pages, final boolean batched) throws Exception {
+        final PhotoCollection photoCollection = new PhotoCollection(mock(PhotoFrameActivity.class), new ArrayList<FlickrClient>());
+        ExecutorService pool = Executors.newFixedThreadPool(INGEST_THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(pages.size());
+        for (final List<Photo> page : pages) {
+            pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            start.await();
+                            if (batched) {
+                                photoCollection.addPhotos(page);
+                            } else {
+                                for (Photo photo : page) {
+                                    photoCollection.addPhoto(photo);
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        assertTrue(done.await(INGEST_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        long nanos = System.nanoTime() - startNanos;
+        pool.shutdown();
+        assertEquals(pages.size() * INGEST_PAGE_SIZE, photoCollection.getPhotos().size());
+        assertEquals(pages.size(), photoCollection.getDiscoveryProgress().numContributors);
+        return nanos;
+    }
+
+    private Photo makePhoto(final String id, final Contact owner) {
+        return new Photo(id, "secret", "server", "farm", owner, "", new Date(), null);
+    }
+}
@@ -0,0 +1,96 @@
+package app.familyphotoframe.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+public class PhotoGenerationTest {
+    private final Contact owner = new Contact("1@N00", "one", Relationship.FAMILY);
+
+    @Test
+    public void snapshotsDontChangeAsPhotosAreAppended() {
+        PhotoGeneration empty = new PhotoGeneration(3, Collections.<Photo>emptyList());
+        PhotoGeneration snapshot = empty;
+        for (int ii=0; ii<100; ii++) {
+            snapshot = snapshot.append(makePhoto(ii));
+        }
+        List<Photo> seen = snapshot.getPhotos();
+
+        PhotoGeneration later = snapshot;
+        for (int ii=100; ii<300; ii++) {
+            later = later.append(makePhoto(ii));
+        }
+
+        assertEquals(0, empty.size());
+        assertEquals(100, snapshot.size());
+        assertEquals(100, seen.size());
+        assertEquals("99", seen.get(99).getId());
+        assertEquals(300, later.size());
+        assertEquals(3, later.getId());
+        List<Photo> added = later.getPhotosSince(snapshot.size());
+        assertEquals(200, added.size());
+        assertEquals("100", added.get(0).getId());
+        assertTrue(later.getPhotosSince(300).isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void photosAreReadOnly() {
+        PhotoGeneration snapshot = new PhotoGeneration(0, Collections.singletonList(makePhoto(0)));
+        snapshot.getPhotos().clear();
+    }
+
+    @Test
+    public void withoutCopiesTheRowsThatAreLeft() {
+        Contact other = new Contact("2@N00", "two", Relationship.FRIEND);
+        List<Photo> photos = new ArrayList<>();
+        for (int ii=0; ii<10; ii++) {
+            // odd ones pack, even ones are kept whole
+            photos.add(new Photo(String.valueOf(100 + ii), ii % 2 == 1 ? "0abc" : "secret", "server", "farm",
+                                 ii < 5 ? owner : other, "title " + ii, new Date(ii), ii == 3 ? "2459115" : null));
+        }
+        PhotoGeneration snapshot = new PhotoGeneration(7, photos);
+
+        PhotoIdSet toRemove = new PhotoIdSet();
+        toRemove.add("100");
+        toRemove.add("101");
+        toRemove.add("107");
+        List<Contact> removedOwners = new ArrayList<>();
+        PhotoGeneration next = snapshot.without(toRemove, removedOwners);
+
+        assertEquals(8, next.getId());
+        assertEquals(7, next.size());
+        assertEquals(3, removedOwners.size());
+        assertSame(owner, removedOwners.get(0));
+        assertSame(other, removedOwners.get(2));
+        String[] left = {"102", "103", "104", "105", "106", "108", "109"};
+        for (int ii=0; ii<left.length; ii++) {
+            assertEquals(left[ii], next.get(ii).getId());
+        }
+        Photo copied = next.get(1);
+        assertEquals("0abc", copied.getSecret());
+        assertEquals("title 3", copied.getTitle());
+        assertEquals("2459115", copied.getWoeId());
+        assertSame(owner, copied.getOwner());
+        assertSame(other, next.getOwner(6));
+
+        // the old snapshot is untouched, and the new one grows on its own
+        assertEquals(10, snapshot.size());
+        assertEquals("100", snapshot.get(0).getId());
+        PhotoGeneration grown = next.append(makePhoto(200));
+        assertEquals(8, grown.size());
+        assertEquals("200", grown.get(7).getId());
+        assertEquals("102", grown.get(0).getId());
+    }
+
+    private Photo makePhoto(final int index) {
+        return new Photo(String.valueOf(index), "secret", "server", "farm", owner, "", new Date(), null);
+    }
+}
@@ -0,0 +1,56 @@
+package app.familyphotoframe.repository;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PhotoIdSetTest {
+
+    @Test
+    public void addsAndRemoves() {
+        PhotoIdSet ids = new PhotoIdSet();
+        for (int ii=0; ii<1000; ii++) {
+            assertTrue(ids.add(String.valueOf(48000000000L + ii)));
+        }
+        assertFalse(ids.add("48000000000"));
+        assertTrue(ids.add("not-a-number"));
+        assertEquals(1001, ids.size());
+
+        for (int ii=0; ii<1000; ii+=2) {
+            assertTrue(ids.remove(String.valueOf(48000000000L + ii)));
+        }
+        assertFalse(ids.remove("48000000000"));
+        for (int ii=0; ii<1000; ii++) {
+            assertEquals(ii % 2 == 1, ids.contains(String.valueOf(48000000000L + ii)));
+        }
+        assertTrue(ids.contains("not-a-number"));
+
+        Set<String> all = new HashSet<>();
+        ids.addAllTo(all);
+        assertEquals(501, all.size());
+        assertTrue(all.contains("48000000999"));
+    }
+
+    @Test
+    public void removesAnotherSet() {
+        PhotoIdSet ids = new PhotoIdSet();
+        PhotoIdSet toRemove = new PhotoIdSet();
+        for (int ii=0; ii<100; ii++) {
+            ids.add(String.valueOf(48000000000L + ii));
+            if (ii % 3 == 0) {
+                toRemove.add(String.valueOf(48000000000L + ii));
+            }
+        }
+        ids.add("not-a-number");
+        toRemove.add("not-a-number");
+
+        ids.removeAll(toRemove);
+        assertEquals(66, ids.size());
+        for (int ii=0; ii<100; ii++) {
+            assertEquals(ii % 3 != 0, ids.contains(String.valueOf(48000000000L + ii)));
+        }
+        assertFalse(ids.contains("not-a-number"));
+    }
+}
@@ -0,0 +1,118 @@
+package app.familyphotoframe.repository;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PhotoRecordNormalizerTest {
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/Los_Angeles");
+    private static final int NUM_RANDOM_DATES = 2000;
+    private static final int NUM_THREADS = 8;
+
+    private final PhotoRecordNormalizer normalizer = new PhotoRecordNormalizer(TIME_ZONE);
+
+    @Test
+    public void blanksFilenameTitles() {
+        assertEquals("", normalizer.normalizeTitle("IMG_20190704_154455"));
+        assertEquals("", normalizer.normalizeTitle("DSC-0042"));
+        assertEquals("", normalizer.normalizeTitle(null));
+        assertEquals("Lake day 2019", normalizer.normalizeTitle("Lake day 2019"));
+        assertEquals("beach_day", normalizer.normalizeTitle("beach_day"));
+        assertEquals("2019", normalizer.normalizeTitle("2019"));
+        assertEquals("", normalizer.normalizeTitle(""));
+    }
+
+    @Test
+    public void parsesLikeSimpleDateFormat() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("y-M-d H:m:s");
+        dateFormat.setTimeZone(TIME_ZONE);
+
+        for (String dateTaken : makeDates(NUM_RANDOM_DATES, 1)) {
+            assertEquals(dateTaken, dateFormat.parse(dateTaken).getTime(), normalizer.parseDateTaken(dateTaken));
+        }
+        assertEquals(dateFormat.parse("2019-7-4 5:2:1").getTime(), normalizer.parseDateTaken("2019-7-4 5:2:1"));
+        assertEquals(dateFormat.parse("2020-02-29 12:00:00").getTime(), normalizer.parseDateTaken("2020-02-29 12:00:00"));
+        assertEquals(dateFormat.parse("2000-02-29 12:00:00").getTime(), normalizer.parseDateTaken("2000-02-29 12:00:00"));
+    }
+
+    @Test
+    public void rejectsBadDates() {
+        String[] badDates = {
+            "0000-00-00 00:00:00",
+            "2019-02-29 12:00:00",
+            "1900-02-29 12:00:00",
+            "2019-13-01 12:00:00",
+            "2019-07-32 12:00:00",
+            "2019-07-04 25:00:00",
+            "2019-07-04 12:60:00",
+            "2019-07-04",
+            "2019-07-04 12:00:00.5",
+            "20190-07-04 12:00:00",
+            "2019/07/04 12:00:00",
+            "not a date",
+            "",
+            null
+        };
+        for (String dateTaken : badDates) {
+            assertEquals(dateTaken, PhotoRecordNormalizer.INVALID_DATE, normalizer.parseDateTaken(dateTaken));
+        }
+    }
+
+    /**
+     * callbacks for different requests share one normalizer
+     */
+    @Test
+    public void sharedAcrossThreads() throws Exception {
+        final List<String> dates = makeDates(NUM_RANDOM_DATES, 2);
+        final long[] expected = new long[dates.size()];
+        for (int ii=0; ii<dates.size(); ii++) {
+            expected[ii] = normalizer.parseDateTaken(dates.get(ii));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int tt=0; tt<NUM_THREADS; tt++) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (int ii=0; ii<dates.size(); ii++) {
+                            if (normalizer.parseDateTaken(dates.get(ii)) != expected[ii]) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * random valid dates. hours 1 and 2 are left out since dst changes make those ambiguous.
+     */
+    private List<String> makeDates(final int count, final long seed) {
+        Random random = new Random(seed);
+        List<String> dates = new ArrayList<>();
+        for (int ii=0; ii<count; ii++) {
+            int hour = random.nextInt(21);
+            if (hour >= 1) {
+                hour += 2;
+            }
+            dates.add(String.format("%04d-%02d-%02d %02d:%02d:%02d", 1990 + random.nextInt(40), 1 + random.nextInt(12),
+                                    1 + random.nextInt(28), hour, random.nextInt(60), random.nextInt(60)));
+        }
+        return dates;
+    }
+}
@@ -0,0 +1,126 @@
+package app.familyphotoframe.repository;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+public class PhotoStoreTest {
+    private static final int[] FOOTPRINT_SIZES = {10000, 100000, 1000000};
+    private static final int FOOTPRINT_CONTACTS = 1000;
+
+    private final Contact owner = new Contact("1@N00", "one", Relationship.FAMILY);
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        PhotoStore store = new PhotoStore(4);
+        Photo photo = new Photo("48123456789", "0a1b2c3d4e", "65535", "66", owner, "at the beach",
+                                new Date(1500000000123L), "2487956");
+        Photo plain = new Photo("7", "00000000ff", "65535", "66", owner, "", new Date(0), null);
+        store.set(0, photo);
+        store.set(1, plain);
+
+        Photo read = store.get(0);
+        assertEquals(photo, read);
+        assertEquals("0a1b2c3d4e", read.getSecret());
+        assertEquals("65535", read.getServerId());
+        assertEquals("66", read.getFarmId());
+        assertSame(owner, read.getOwner());
+        assertEquals("at the beach", read.getTitle());
+        assertEquals(new Date(1500000000123L), read.getDateTaken());
+        assertEquals("2487956", read.getWoeId());
+
+        read = store.get(1);
+        assertEquals("00000000ff", read.getSecret());
+        assertEquals("", read.getTitle());
+        assertNull(read.getWoeId());
+        assertSame(owner, store.getOwner(1));
+    }
+
+    @Test
+    public void keepsPhotosThatDontPackWhole() {
+        PhotoStore store = new PhotoStore(2);
+        Photo oddId = new Photo("0123", "secret", "server", "farm", owner, "", new Date(), null);
+        Photo oddWoeId = new Photo("5", "abc", "1", "1", owner, "", new Date(), "99999999999");
+        store.set(0, oddId);
+        store.set(1, oddWoeId);
+
+        PhotoStore grown = store.grow(4, 2);
+        assertSame(oddId, grown.get(0));
+        assertSame(oddWoeId, grown.get(1));
+        assertSame(owner, grown.getOwner(0));
+        assertEquals(4, grown.capacity());
+    }
+
+    /**
+     * report the heap taken per photo by a generation and the collection's id set, against the
+     * photo objects in a list and a set, which is what the collection held before. the photos
+     * look like flickr's: numeric ids, ten digit hex secrets and a title each.
+     */
+    @Test
+    public void benchmarkFootprint() {
+        Benchmarks.assumeEnabled();
+        List<Contact> contacts = new ArrayList<>();
+        for (int ii=0; ii<FOOTPRINT_CONTACTS; ii++) {
+            contacts.add(new Contact(FakeFlickrServer.getContactUserId(ii), "user" + ii, Relationship.FRIEND));
+        }
+
+        for (int size : FOOTPRINT_SIZES) {
+            long before = usedHeap();
+            PhotoGeneration generation = new PhotoGeneration(0, new ArrayList<Photo>());
+            PhotoIdSet ids = new PhotoIdSet();
+            for (int ii=0; ii<size; ii++) {
+                Photo photo = makePhoto(ii, contacts);
+                generation = generation.append(photo);
+                ids.add(photo.getId());
+            }
+            long columnBytes = usedHeap() - before;
+            assertEquals(size, generation.size());
+            assertEquals(size, ids.size());
+            assertEquals(makePhoto(size - 1, contacts), generation.get(size - 1));
+            generation = null;
+            ids = null;
+
+            before = usedHeap();
+            List<Photo> list = new ArrayList<>();
+            Set<Photo> set = new HashSet<>();
+            for (int ii=0; ii<size; ii++) {
+                Photo photo = makePhoto(ii, contacts);
+                list.add(photo);
+                set.add(photo);
+            }
+            long objectBytes = usedHeap() - before;
+            assertEquals(size, set.size());
+            list = null;
+            set = null;
+
+            System.out.println(String.format("%8d photos: columns %5d B/photo, objects %5d B/photo",
+                                             size, columnBytes / size, objectBytes / size));
+            assertTrue("columns should take less room than photo objects", columnBytes < objectBytes);
+        }
+    }
+
+    private Photo makePhoto(final int index, final List<Contact> contacts) {
+        long id = 48000000000L + index;
+        String secret = String.format("%010x", (id * 2654435761L) & 0xffffffffffL);
+        return new Photo(String.valueOf(id), secret, String.valueOf(65535 - index % 7), String.valueOf(66),
+                         contacts.get(index % contacts.size()), "IMG_" + index, new Date(1400000000000L + index * 60000L),
+                         index % 3 == 0 ? null : String.valueOf(2487956 + index % 50));
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int ii=0; ii<3; ii++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,176 @@
+package app.familyphotoframe.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+public class PhotosPageDecoderTest {
+    private static final int BENCHMARK_PAGE_SIZE = 500;
+    private static final int WARMUP_ITERATIONS = 100;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    private final Contact owner = new Contact("12037949754@N01", "beth", Relationship.FAMILY);
+
+    private final PhotosPageDecoder.ContactLookup contactLookup = new PhotosPageDecoder.ContactLookup() {
+            public Contact getContact(final String userId) {
+                return owner;
+            }
+        };
+
+    @Test
+    public void decodesRecordedPage() throws Exception {
+        PhotosPageDecoder.PhotosPage page = new PhotosPageDecoder(contactLookup).decode(RecordedPages.open(RecordedPages.PEOPLE_GET_PHOTOS));
+
+        assertTrue(page.ok);
+        assertEquals(1, page.page);
+        assertEquals(3, page.numPages);
+        assertEquals(5, page.photos.size());
+        assertEquals(1, page.numSkipped); // the mov
+
+        Photo first = page.photos.get(0);
+        assertEquals("48213477612", first.getId());
+        assertEquals("8f3d5b0a2c", first.getSecret());
+        assertEquals("65535", first.getServerId());
+        assertEquals("66", first.getFarmId());
+        assertEquals("Lake day with the cousins", first.getTitle());
+        assertEquals("2452078", first.getWoeId());
+        assertSame(owner, first.getOwner());
+
+        // filename-like title is blanked
+        assertEquals("", page.photos.get(1).getTitle());
+        // no woeid
+        assertNull(page.photos.get(2).getWoeId());
+    }
+
+    /**
+     * flickr sends a zero date taken for some real photos. they're kept, with the upload date if
+     * there is one.
+     */
+    @Test
+    public void keepsPhotosWithUnusableDateTaken() throws Exception {
+        String response = "{\"photos\":{\"page\":1,\"pages\":1,\"photo\":["
+            + "{\"id\":\"1\",\"owner\":\"12037949754@N01\",\"secret\":\"a\",\"server\":\"65535\",\"farm\":66,"
+            + "\"title\":\"\",\"datetaken\":\"0000-00-00 00:00:00\",\"dateupload\":\"1500000000\",\"originalformat\":\"jpg\"},"
+            + "{\"id\":\"2\",\"owner\":\"12037949754@N01\",\"secret\":\"b\",\"server\":\"65535\",\"farm\":66,"
+            + "\"title\":\"\",\"datetaken\":\"0000-00-00 00:00:00\",\"originalformat\":\"jpg\"}"
+            + "]},\"stat\":\"ok\"}";
+        PhotosPageDecoder.PhotosPage page = new PhotosPageDecoder(contactLookup).decode(toStream(response));
+
+        assertEquals(2, page.photos.size());
+        assertEquals(0, page.numSkipped);
+        assertEquals(new Date(1500000000000L), page.photos.get(0).getDateTaken());
+        assertEquals(new Date(0), page.photos.get(1).getDateTaken());
+    }
+
+    @Test
+    public void reportsFlickrError() throws Exception {
+        String response = "{\"stat\":\"fail\",\"code\":1,\"message\":\"User not found\"}";
+        PhotosPageDecoder.PhotosPage page = new PhotosPageDecoder(contactLookup).decode(toStream(response));
+
+        assertFalse(page.ok);
+        assertTrue(page.photos.isEmpty());
+    }
+
+    /**
+     * compare decoding a full page with the streaming decoder against building an org.json tree
+     * and walking it, which is what JsonHttpResponseHandler and the old handler did.
+     */
+    @Test
+    public void benchmarkAgainstJsonTree() throws Exception {
+        Benchmarks.assumeEnabled();
+        byte[] response = RecordedPages.makeFullPage(BENCHMARK_PAGE_SIZE).toString().getBytes("UTF-8");
+
+        for (int ii=0; ii<WARMUP_ITERATIONS; ii++) {
+            decodeWithJsonTree(response);
+            new PhotosPageDecoder(contactLookup).decode(new ByteArrayInputStream(response));
+        }
+
+        long treeBytes = allocatedBytes();
+        long treeStart = System.nanoTime();
+        int treeCount = 0;
+        for (int ii=0; ii<BENCHMARK_ITERATIONS; ii++) {
+            treeCount += decodeWithJsonTree(response).size();
+        }
+        long treeNanos = System.nanoTime() - treeStart;
+        treeBytes = allocatedBytes() - treeBytes;
+
+        long streamBytes = allocatedBytes();
+        long streamStart = System.nanoTime();
+        int streamCount = 0;
+        for (int ii=0; ii<BENCHMARK_ITERATIONS; ii++) {
+            streamCount += new PhotosPageDecoder(contactLookup).decode(new ByteArrayInputStream(response)).photos.size();
+        }
+        long streamNanos = System.nanoTime() - streamStart;
+        streamBytes = allocatedBytes() - streamBytes;
+
+        assertEquals(treeCount, streamCount);
+
+        System.out.println(String.format("page of %d photos, %d bytes", BENCHMARK_PAGE_SIZE, response.length));
+        System.out.println(String.format("json tree: %8.1f pages/s %10d bytes allocated/page",
+                                         BENCHMARK_ITERATIONS * 1e9 / treeNanos, treeBytes / BENCHMARK_ITERATIONS));
+        System.out.println(String.format("streaming: %8.1f pages/s %10d bytes allocated/page",
+                                         BENCHMARK_ITERATIONS * 1e9 / streamNanos, streamBytes / BENCHMARK_ITERATIONS));
+
+        if (treeBytes > 0) {
+            assertTrue("streaming should allocate less than the json tree", streamBytes < treeBytes);
+        }
+    }
+
+    /**
+     * the decoding path from before the streaming decoder
+     */
+    private List<Photo> decodeWithJsonTree(final byte[] response) throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("y-M-d H:m:s");
+        List<Photo> photos = new ArrayList<>();
+        JSONObject json = new JSONObject(new String(response, "UTF-8"));
+        JSONArray jsonPhotos = json.getJSONObject("photos").getJSONArray("photo");
+        for (int ii=0; ii<jsonPhotos.length(); ii++) {
+            JSONObject jsonPhoto = jsonPhotos.getJSONObject(ii);
+            String format = jsonPhoto.getString("originalformat");
+            if (!"png".equalsIgnoreCase(format) && !"jpg".equalsIgnoreCase(format)) {
+                continue;
+            }
+            String title = jsonPhoto.getString("title");
+            if (Pattern.matches("^[^ ]+$", title) && Pattern.matches(".*[0-9].*", title) && Pattern.matches(".*[\\-_].*", title)) {
+                title = "";
+            }
+            Date dateTaken = dateFormat.parse(jsonPhoto.getString("datetaken"));
+            String woeId = jsonPhoto.has("woeid") ? jsonPhoto.getString("woeid") : null;
+            photos.add(new Photo(jsonPhoto.getString("id"), jsonPhoto.getString("secret"), jsonPhoto.getString("server"),
+                                 String.valueOf(jsonPhoto.get("farm")), contactLookup.getContact(jsonPhoto.getString("owner")),
+                                 title, dateTaken, woeId));
+        }
+        return photos;
+    }
+
+    private InputStream toStream(final String text) throws IOException {
+        return new ByteArrayInputStream(text.getBytes("UTF-8"));
+    }
+
+    /**
+     * bytes allocated by this thread so far, or 0 if the jvm can't tell us
+     */
+    private long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,76 @@
+package app.familyphotoframe.repository;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PlaceCacheTest {
+    private static final int MAX_ENTRIES = 3;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("places", ".cache");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        PlaceCache cache = new PlaceCache(file, MAX_ENTRIES);
+        cache.put("1", "one");
+        cache.put("2", "two");
+        cache.put("3", "three");
+        assertEquals("one", cache.get("1"));
+        cache.put("4", "four");
+
+        assertEquals(MAX_ENTRIES, cache.size());
+        assertNull("2 was used least recently", cache.get("2"));
+        assertEquals("one", cache.get("1"));
+        assertEquals("three", cache.get("3"));
+        assertEquals("four", cache.get("4"));
+    }
+
+    @Test
+    public void lruOrderSurvivesReload() throws Exception {
+        PlaceCache cache = new PlaceCache(file, MAX_ENTRIES);
+        cache.put("1", "one");
+        cache.put("2", "two");
+        cache.put("3", "three");
+        cache.get("1");
+        // reads aren't saved on their own, the next write takes them along
+        cache.put("3", "three");
+        // 2 is now the least recently used
+        cache.flush();
+
+        PlaceCache reloaded = new PlaceCache(file, MAX_ENTRIES);
+        assertEquals(MAX_ENTRIES, reloaded.size());
+        reloaded.put("4", "four");
+        assertNull(reloaded.get("2"));
+        assertEquals("one", reloaded.get("1"));
+        assertEquals("three", reloaded.get("3"));
+        assertEquals("four", reloaded.get("4"));
+    }
+
+    @Test
+    public void ignoresOtherVersion() throws Exception {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(99);
+        out.writeInt(1);
+        out.writeUTF("1");
+        out.writeUTF("one");
+        out.close();
+
+        PlaceCache cache = new PlaceCache(file, MAX_ENTRIES);
+        assertEquals(0, cache.size());
+        assertNull(cache.get("1"));
+    }
+}
@@ -0,0 +1,102 @@
+package app.familyphotoframe.repository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import app.familyphotoframe.model.Contact;
+import app.familyphotoframe.model.Photo;
+import app.familyphotoframe.model.Relationship;
+
+public class PlaceLookupsTest {
+    private static final String WOE_ID = "2452078";
+
+    private final Contact owner = new Contact("1@N00", "one", Relationship.FAMILY);
+    private File file;
+    private PlaceCache placesCache;
+    /** woeids sent, in order */
+    private final List<String> sent = new ArrayList<>();
+    private int numAborted;
+    private PlaceLookups placeLookups;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("places", ".cache");
+        assertTrue(file.delete());
+        placesCache = new PlaceCache(file, 100);
+        placeLookups = new PlaceLookups(placesCache, new PlaceLookups.Sender() {
+                public Runnable send(final String woeId) {
+                    sent.add(woeId);
+                    return new Runnable() {
+                        public void run() {
+                            numAborted++;
+                        }
+                    };
+                }
+            }, new Executor() {
+                public void execute(final Runnable task) {
+                    task.run();
+                }
+            });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        placesCache.flush();
+        file.delete();
+    }
+
+    @Test
+    public void photosInOnePlaceShareARequest() throws Exception {
+        Photo first = makePhoto("1", WOE_ID);
+        Photo second = makePhoto("2", WOE_ID);
+        FlickrFuture<String> firstFuture = placeLookups.lookup(first);
+        FlickrFuture<String> secondFuture = placeLookups.lookup(second);
+        placeLookups.lookup(makePhoto("3", "12345"));
+        assertEquals(2, sent.size());
+        assertEquals(WOE_ID, sent.get(0));
+
+        placeLookups.complete(WOE_ID, "Minneapolis");
+        assertEquals("Minneapolis", firstFuture.get());
+        assertEquals("Minneapolis", secondFuture.get());
+        assertEquals("Minneapolis", first.getLocation());
+        assertEquals("Minneapolis", second.getLocation());
+        assertEquals(1, placeLookups.getNumInFlight());
+
+        // later photos in the same place come from the cache
+        Photo third = makePhoto("4", WOE_ID);
+        assertEquals("Minneapolis", placeLookups.lookup(third).get());
+        assertEquals("Minneapolis", third.getLocation());
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void cancellingTheLastWaiterAbortsTheRequest() throws Exception {
+        FlickrFuture<String> firstFuture = placeLookups.lookup(makePhoto("1", WOE_ID));
+        FlickrFuture<String> secondFuture = placeLookups.lookup(makePhoto("2", WOE_ID));
+
+        assertTrue(firstFuture.cancel(true));
+        assertEquals("someone is still waiting", 0, numAborted);
+        assertEquals(1, placeLookups.getNumInFlight());
+
+        assertTrue(secondFuture.cancel(true));
+        assertEquals(1, numAborted);
+        assertEquals(0, placeLookups.getNumInFlight());
+
+        // a new lookup doesn't join the aborted request
+        FlickrFuture<String> thirdFuture = placeLookups.lookup(makePhoto("3", WOE_ID));
+        assertEquals(2, sent.size());
+        placeLookups.complete(WOE_ID, "Minneapolis");
+        assertEquals("Minneapolis", thirdFuture.get());
+        assertTrue(secondFuture.isCancelled());
+    }
+
+    private Photo makePhoto(final String id, final String woeId) {
+        return new Photo(id, "secret", "server", "farm", owner, "", new Date(), woeId);
+    }
+}
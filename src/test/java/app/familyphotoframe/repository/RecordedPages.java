@@ -0,0 +1,51 @@
+package app.familyphotoframe.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * responses recorded from flickr, under src/test/resources/flickr
+ */
+class RecordedPages {
+    static final String PEOPLE_GET_PHOTOS = "/flickr/people.getPhotos.json";
+
+    private RecordedPages() {
+    }
+
+    static InputStream open(final String name) {
+        return RecordedPages.class.getResourceAsStream(name);
+    }
+
+    static String read(final String name) throws IOException {
+        InputStream in = open(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            out.write(buffer, 0, len);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * a full size page made by repeating the records of the recorded page with new ids
+     */
+    static JSONObject makeFullPage(final int size) throws Exception {
+        JSONObject recorded = new JSONObject(read(PEOPLE_GET_PHOTOS));
+        JSONArray recordedPhotos = recorded.getJSONObject("photos").getJSONArray("photo");
+        JSONArray photos = new JSONArray();
+        for (int ii=0; ii<size; ii++) {
+            JSONObject photo = new JSONObject(recordedPhotos.getJSONObject(ii % recordedPhotos.length()).toString());
+            photo.put("id", String.valueOf(48000000000L + ii));
+            photos.put(photo);
+        }
+        recorded.getJSONObject("photos").put("photo", photos);
+        recorded.getJSONObject("photos").put("perpage", size);
+        return recorded;
+    }
+}
@@ -0,0 +1,111 @@
+package app.familyphotoframe.repository;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class RequestMetricsTest {
+    private static final String PHOTOS = "flickr.people.getPhotos";
+    private static final String PLACES = "flickr.places.getInfo";
+
+    private RequestMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new RequestMetrics(null);
+    }
+
+    @Test
+    public void countsLatencyInBuckets() {
+        finish(PHOTOS, "fast", 10, 200);
+        finish(PHOTOS, "edge", 50, 200);
+        finish(PHOTOS, "slow", 60000, 200);
+
+        long[] counts = metrics.getLatencyCounts(PHOTOS);
+        assertEquals(RequestMetrics.LATENCY_BUCKETS_MS.length + 1, counts.length);
+        assertEquals(1, counts[0]);
+        // a bucket's bound belongs to the next one up
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(3, metrics.getNumCompleted(PHOTOS));
+        assertEquals(0, metrics.getNumCompleted(PLACES));
+    }
+
+    @Test
+    public void tracksInFlightAndFailures() {
+        metrics.requestStarted(PLACES);
+        metrics.requestStarted(PLACES);
+        metrics.requestStarted(PLACES);
+        assertEquals(3, metrics.getInFlight(PLACES));
+
+        metrics.requestFinished(PLACES, "woeid 1", TimeUnit.MILLISECONDS.toNanos(100), 503, false, 20);
+        metrics.requestFinished(PLACES, "woeid 2", TimeUnit.MILLISECONDS.toNanos(100), RequestMetrics.NO_RESPONSE, false, -1);
+        metrics.requestCancelled(PLACES);
+
+        assertEquals(0, metrics.getInFlight(PLACES));
+        assertEquals(2, metrics.getNumCompleted(PLACES));
+        assertEquals(1, metrics.getNumFailed(PLACES, 503));
+        assertEquals(1, metrics.getNumFailed(PLACES, RequestMetrics.NO_RESPONSE));
+        assertEquals(20, metrics.getBytesReceived(PLACES));
+    }
+
+    @Test
+    public void reportsSlowestRequests() throws Exception {
+        for (int ii=0; ii<RequestMetrics.NUM_SLOWEST * 2; ii++) {
+            finish(PHOTOS, "contact " + ii, ii * 100, 200);
+        }
+        metrics.photosIngested(500);
+
+        StringWriter out = new StringWriter();
+        metrics.writeTo(out);
+        String report = out.toString();
+        assertTrue(report, report.contains("slow: " + PHOTOS + " contact " + (RequestMetrics.NUM_SLOWEST * 2 - 1) + " "));
+        assertTrue(report, report.contains("contact " + RequestMetrics.NUM_SLOWEST + " "));
+        assertFalse(report, report.contains("contact " + (RequestMetrics.NUM_SLOWEST - 1) + " "));
+        assertTrue(report, report.contains("photos ingested: 500"));
+    }
+
+    @Test
+    public void measuresIngestRatePerDiscovery() {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        metrics.discoveryStarted();
+        metrics.photosIngested(100, 0);
+        metrics.photosIngested(100, second);
+        assertEquals(200, metrics.getPhotosPerSecond(), 0.01);
+
+        // a day idle between discoveries doesn't count
+        metrics.discoveryStarted();
+        assertEquals(0, metrics.getPhotosPerSecond(), 0.01);
+        metrics.photosIngested(50, TimeUnit.DAYS.toNanos(1));
+        metrics.photosIngested(50, TimeUnit.DAYS.toNanos(1) + 2 * second);
+        assertEquals(50, metrics.getPhotosPerSecond(), 0.01);
+        assertEquals(300, metrics.getNumPhotosIngested());
+    }
+
+    @Test
+    public void exportsAgainAfterShutdown() throws Exception {
+        File file = File.createTempFile("metrics", ".txt");
+        file.delete();
+        try {
+            RequestMetrics exported = new RequestMetrics(file);
+            exported.exportInBackground();
+            exported.shutdown();
+            assertTrue(exported.awaitExports(5000));
+            assertTrue("an export asked for before shutdown is still written", file.delete());
+
+            exported.exportInBackground();
+            assertTrue(exported.awaitExports(5000));
+            assertTrue(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void finish(final String method, final String label, final long ms, final int statusCode) {
+        metrics.requestStarted(method);
+        metrics.requestFinished(method, label, TimeUnit.MILLISECONDS.toNanos(ms), statusCode, true, 100);
+    }
+}
@@ -0,0 +1,170 @@
+package app.familyphotoframe.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class RequestSchedulerTest {
+    private static final int MAX_CONCURRENT_REQUESTS = 2;
+    private static final double REQUESTS_PER_SECOND = 2.0;
+    private static final int BURST_SIZE = 3;
+
+    private long nowMs;
+    /** timers that haven't fired, with the time each is due */
+    private final List<Runnable> timers = new ArrayList<>();
+    private final List<Long> timerDueMs = new ArrayList<>();
+    /** names of the requests sent, in order */
+    private final List<String> sent = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        nowMs = 100000;
+    }
+
+    @Test
+    public void capsRequestsInFlight() {
+        RequestScheduler scheduler = makeScheduler(MAX_CONCURRENT_REQUESTS, 1000, 100);
+        for (int ii=0; ii<5; ii++) {
+            scheduler.submit(RequestScheduler.Priority.PHOTOS, request("photos" + ii));
+        }
+        assertEquals(Arrays.asList("photos0", "photos1"), sent);
+        assertEquals(MAX_CONCURRENT_REQUESTS, scheduler.getNumInFlight());
+        assertEquals(3, scheduler.getQueueDepth());
+
+        scheduler.requestFinished();
+        assertEquals(3, sent.size());
+        assertEquals(MAX_CONCURRENT_REQUESTS, scheduler.getNumInFlight());
+        scheduler.requestFinished();
+        scheduler.requestFinished();
+        scheduler.requestFinished();
+        assertEquals(5, sent.size());
+        assertEquals(1, scheduler.getNumInFlight());
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void startsABurstThenKeepsToTheRate() {
+        RequestScheduler scheduler = makeScheduler(100, REQUESTS_PER_SECOND, BURST_SIZE);
+        for (int ii=0; ii<5; ii++) {
+            scheduler.submit(RequestScheduler.Priority.PHOTOS, request("photos" + ii));
+        }
+        assertEquals(BURST_SIZE, sent.size());
+        assertEquals("one timer for the next token", 1, timers.size());
+
+        advance(499);
+        assertEquals(BURST_SIZE, sent.size());
+        advance(1);
+        assertEquals(BURST_SIZE + 1, sent.size());
+        advance(500);
+        assertEquals(BURST_SIZE + 2, sent.size());
+        assertTrue("nothing left to wait for", timers.isEmpty());
+
+        // tokens don't pile up past the burst size while idle
+        advance(60000);
+        for (int ii=0; ii<5; ii++) {
+            scheduler.submit(RequestScheduler.Priority.PHOTOS, request("later" + ii));
+        }
+        assertEquals(BURST_SIZE + 2 + BURST_SIZE, sent.size());
+    }
+
+    @Test
+    public void sendsByPriorityThenInOrder() {
+        RequestScheduler scheduler = makeScheduler(1, 1000, 100);
+        scheduler.submit(RequestScheduler.Priority.PLACES, request("first"));
+        scheduler.submit(RequestScheduler.Priority.PLACES, request("places"));
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, request("photos1"));
+        scheduler.submit(RequestScheduler.Priority.DISCOVERY, request("contacts1"));
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, request("photos2"));
+        scheduler.submit(RequestScheduler.Priority.DISCOVERY, request("contacts2"));
+        for (int ii=0; ii<5; ii++) {
+            scheduler.requestFinished();
+        }
+        assertEquals(Arrays.asList("first", "contacts1", "contacts2", "photos1", "photos2", "places"), sent);
+    }
+
+    @Test
+    public void cancelDropsOnlyQueuedRequests() {
+        RequestScheduler scheduler = makeScheduler(1, 1000, 100);
+        Runnable started = request("started");
+        Runnable queued = request("queued");
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, started);
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, queued);
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, request("next"));
+
+        assertFalse("already sent", scheduler.cancel(started));
+        assertTrue(scheduler.cancel(queued));
+        assertFalse("already cancelled", scheduler.cancel(queued));
+        assertEquals(1, scheduler.getQueueDepth());
+
+        scheduler.requestFinished();
+        assertEquals(Arrays.asList("started", "next"), sent);
+    }
+
+    @Test
+    public void tracksQueueDepthAndWait() {
+        RequestScheduler scheduler = makeScheduler(1, 1000, 100);
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, request("a"));
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, request("b"));
+        scheduler.submit(RequestScheduler.Priority.PHOTOS, request("c"));
+        assertEquals(2, scheduler.getMaxQueueDepth());
+
+        advance(100);
+        scheduler.requestFinished();
+        advance(200);
+        scheduler.requestFinished();
+
+        assertEquals(3, scheduler.getNumStarted());
+        assertEquals("b waited 100 ms and c 300", 300, scheduler.getMaxWaitMs());
+        assertEquals((0 + 100 + 300) / 3, scheduler.getAverageWaitMs());
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(2, scheduler.getMaxQueueDepth());
+    }
+
+    private RequestScheduler makeScheduler(final int maxConcurrentRequests, final double requestsPerSecond,
+                                           final int burstSize) {
+        return new RequestScheduler(maxConcurrentRequests, requestsPerSecond, burstSize) {
+            @Override
+            long now() {
+                return nowMs;
+            }
+
+            @Override
+            void postDelayed(final Runnable task, final long delayMs) {
+                timers.add(task);
+                timerDueMs.add(nowMs + delayMs);
+            }
+        };
+    }
+
+    private Runnable request(final String name) {
+        return new Runnable() {
+            public void run() {
+                sent.add(name);
+            }
+        };
+    }
+
+    /**
+     * move the clock forward, firing the timers that come due
+     */
+    private void advance(final long ms) {
+        long end = nowMs + ms;
+        while (true) {
+            int next = -1;
+            for (int ii=0; ii<timers.size(); ii++) {
+                if (timerDueMs.get(ii) <= end && (next < 0 || timerDueMs.get(ii) < timerDueMs.get(next))) {
+                    next = ii;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            nowMs = timerDueMs.remove(next);
+            timers.remove(next).run();
+        }
+        nowMs = end;
+    }
+}
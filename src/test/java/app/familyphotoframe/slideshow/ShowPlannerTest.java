@@ -23,6 +23,7 @@ import app.familyphotoframe.model.Photo;
 import app.familyphotoframe.model.Contact;
 import app.familyphotoframe.model.Relationship;
 import app.familyphotoframe.repository.PhotoCollection;
+import app.familyphotoframe.repository.PhotoGeneration;
 import app.familyphotoframe.PhotoFrameActivity;
 import app.familyphotoframe.exception.DiscoveryFailureException;
 
@@ -78,8 +79,8 @@ public class ShowPlannerTest {
             }
         }
 
-        when(mockPhotoCollection.getPhotos())
-            .thenReturn(allPhotos);
+        when(mockPhotoCollection.getPhotoGeneration())
+            .thenReturn(new PhotoGeneration(0, allPhotos));
         when(mockPhotoCollection.getTimeOfLastDiscovery())
             .thenReturn(makeDate(-1));
 